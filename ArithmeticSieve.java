@@ -0,0 +1,391 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Josh Morgan
+ * An Arithmetic Sieve computes the Mobius function, Euler's totient and the number of distinct prime factors of
+ * every number in a range, without factoring the numbers one at a time.
+ * The optimizations for this algorithm are:
+ *     Sieving with the same prime factors as the other sieves, from PrimeEngine, generated in parallel for large
+ *     upper bounds. Each prime factor divides its multiples in a chunk out of what is left of them, and whatever is
+ *     left over at the end is the one prime factor above the square root.
+ *     Keeping the results in primitive arrays, one byte for the Mobius function and the number of distinct prime
+ *     factors and one long for the totient, instead of a list of boxed values.
+ *     Computing the chunks in parallel on an executor, such as the one a ParallelLongSieve runs on, with only a few
+ *     chunks per thread in flight so the memory stays bounded for any range.
+ *     Streaming the chunks in order to a Consumer, or to a binary file, instead of keeping them.
+ */
+public class ArithmeticSieve implements Callable<ArithmeticSieve>{
+	// The memory used by one number of a chunk: what is left of it, its totient, its Mobius value and its count
+	private static final int BYTES_PER_NUMBER = 18;
+	// The bytes written for each number by Segment.writeTo: the Mobius value, the count and the totient
+	public static final int RECORD_SIZE = 10;
+	// The largest chunk computed by one thread at a time
+	private static final int MAXIMUM_CHUNK = 1 << 21;
+	// The chunks in flight for each thread
+	private static final int CHUNKS_PER_THREAD = 2;
+
+	private long lowerBound;
+	private long upperBound;
+	private long[] primeFactors;
+	private int numberOfCores;
+	private Consumer consumer;
+	private int chunks;
+	// A summary of the range, collected as the chunks are consumed
+	private long mobiusSum;
+	private long squareFree;
+	private long primes;
+	private String outputFile;
+	private long executionTime;
+
+	/**
+	 * Receives the chunks of a sieve in increasing order, on the thread that runs the sieve.
+	 */
+	public interface Consumer {
+		void onSegment(Segment segment) throws IOException;
+	} // End of Consumer
+
+	/**
+	 * The values of the arithmetic functions for a chunk of consecutive numbers.
+	 */
+	public static class Segment {
+		private long lowerBound;
+		private byte[] mobius;
+		private byte[] omega;
+		private long[] totient;
+
+		Segment(long lowerBound, byte[] mobius, byte[] omega, long[] totient){
+			this.lowerBound = lowerBound;
+			this.mobius = mobius;
+			this.omega = omega;
+			this.totient = totient;
+		} // End of Constructor
+
+		public long getLowerBound() {
+			return this.lowerBound;
+		}
+
+		public int size() {
+			return this.mobius.length;
+		}
+
+		/**
+		 * @param index The index of the number in the segment, lowerBound + index
+		 * @return The Mobius function of the number, -1, 0 or 1
+		 */
+		public int getMobius(int index) {
+			return this.mobius[index];
+		}
+
+		/**
+		 * @return The number of distinct prime factors of the number
+		 */
+		public int getOmega(int index) {
+			return this.omega[index];
+		}
+
+		/**
+		 * @return Euler's totient of the number
+		 */
+		public long getTotient(int index) {
+			return this.totient[index];
+		}
+
+		/**
+		 * Writes a record of RECORD_SIZE bytes for each number: the Mobius value and the number of distinct prime
+		 * factors as one byte each, then the totient as a big endian long.
+		 * @param output The stream to write to
+		 */
+		public void writeTo(OutputStream output) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(size() * RECORD_SIZE);
+			for(int i = 0; i < size(); i++) {
+				buffer.put(this.mobius[i]);
+				buffer.put(this.omega[i]);
+				buffer.putLong(this.totient[i]);
+			}
+			output.write(buffer.array());
+		} // End of writeTo
+	} // End of Segment
+
+	/**
+	 * @param lowerBound The lowerBound of the range (inclusive), 0 is skipped since the functions aren't defined
+	 * for it
+	 * @param upperBound The upperBound of the range (exclusive)
+	 */
+	ArithmeticSieve(long lowerBound, long upperBound){
+		this.lowerBound = Math.max(1, lowerBound);
+		this.upperBound = Math.max(this.lowerBound, upperBound);
+		this.numberOfCores = ParallelLongSieve.getAvailableCores();
+	} // End of Constructor
+
+	/**
+	 * Computes the range on a new executor with the configured number of threads.
+	 */
+	public void sieve() throws Exception {
+		ExecutorService EXEC = Executors.newFixedThreadPool(this.numberOfCores);
+		try {
+			sieve(EXEC);
+		}
+		finally {
+			EXEC.shutdown();
+		}
+	} // End of sieve
+
+	/**
+	 * Computes the chunks on an executor that may be shared with other sieves, and hands them to the consumer in
+	 * order. The executor is left running.
+	 * @param EXEC The executor the chunks are computed on
+	 */
+	public void sieve(ExecutorService EXEC) throws Exception {
+		long start = System.currentTimeMillis();
+		if(this.primeFactors == null) {
+			this.primeFactors = PrimeEngine.primeFactors((long) Math.sqrt(this.upperBound) + 1, this.numberOfCores);
+		}
+		long chunkSize = getChunkSize();
+		ArrayDeque<Future<Segment>> inFlight = new ArrayDeque<Future<Segment>>();
+		this.chunks = 0;
+		this.mobiusSum = 0;
+		this.squareFree = 0;
+		this.primes = 0;
+		try {
+			long next = this.lowerBound;
+			while(next < this.upperBound || ! inFlight.isEmpty()) {
+				while(next < this.upperBound && inFlight.size() < CHUNKS_PER_THREAD * this.numberOfCores) {
+					final long chunkStart = next;
+					// Clamped by distance, next + chunkSize can overflow near Long.MAX_VALUE
+					final long chunkEnd = this.upperBound - next > chunkSize ? next + chunkSize : this.upperBound;
+					inFlight.add(EXEC.submit(() -> computeSegment(chunkStart, chunkEnd, this.primeFactors)));
+					next = chunkEnd;
+					this.chunks++;
+				}
+				Segment segment = inFlight.poll().get();
+				summarize(segment);
+				if(this.consumer != null) {
+					this.consumer.onSegment(segment);
+				}
+			}
+		}
+		finally {
+			// Only left over if the consumer failed
+			for(Future<Segment> chunk : inFlight) {
+				chunk.cancel(true);
+			}
+		}
+		this.executionTime = System.currentTimeMillis() - start;
+	} // End of sieve
+
+	/**
+	 * Computes the range and writes it to a binary file of the form "Arithmetic [lowerBound,upperBound).bin" in the
+	 * folder, as described in Segment.writeTo. The chunks are still handed to the consumer if there is one.
+	 * @param outputFolder The folder the file is written to
+	 * @return The path of the file
+	 */
+	public String sieveToFile(String outputFolder) throws Exception {
+		ExecutorService EXEC = Executors.newFixedThreadPool(this.numberOfCores);
+		try {
+			return sieveToFile(outputFolder, EXEC);
+		}
+		finally {
+			EXEC.shutdown();
+		}
+	} // End of sieveToFile
+
+	/**
+	 * @param outputFolder The folder the file is written to
+	 * @param EXEC The executor the chunks are computed on, which is left running
+	 * @return The path of the file
+	 */
+	public String sieveToFile(String outputFolder, ExecutorService EXEC) throws Exception {
+		String path = Paths.get(outputFolder, getFileName()).toString();
+		Consumer previous = this.consumer;
+		try(DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path), 1 << 16))) {
+			this.consumer = segment -> {
+				segment.writeTo(output);
+				if(previous != null) {
+					previous.onSegment(segment);
+				}
+			};
+			sieve(EXEC);
+		}
+		finally {
+			this.consumer = previous;
+		}
+		this.outputFile = path;
+		return path;
+	} // End of sieveToFile
+
+	/**
+	 * @return The numbers in a chunk: at least the square root of the upper bound, so every prime factor has
+	 * a multiple in most chunks, and at least a cache sized segment, but no more than MAXIMUM_CHUNK
+	 */
+	private long getChunkSize() {
+		long size = Math.max(SegmentTuner.getSegmentSize() / BYTES_PER_NUMBER, (long) Math.sqrt(this.upperBound));
+		return Math.max(1, Math.min(MAXIMUM_CHUNK, size));
+	} // End of getChunkSize
+
+	/**
+	 * @param lowerBound The lower bound of the chunk (inclusive), at least 1
+	 * @param upperBound The upper bound of the chunk (exclusive)
+	 * @param primeFactors The primes up to at least the square root of the upper bound, in increasing order
+	 * @return The values of the functions for every number in the chunk
+	 */
+	static Segment computeSegment(long lowerBound, long upperBound, long[] primeFactors) {
+		int size = (int) (upperBound - lowerBound);
+		long[] remaining = new long[size];
+		long[] totient = new long[size];
+		byte[] mobius = new byte[size];
+		byte[] omega = new byte[size];
+		for(int i = 0; i < size; i++) {
+			remaining[i] = lowerBound + i;
+			totient[i] = lowerBound + i;
+			mobius[i] = 1;
+		}
+		for(long p : primeFactors) {
+			if(p > (upperBound - 1) / p) {
+				break;
+			}
+			// Stepping by index from the remainder, the multiples themselves can overflow near Long.MAX_VALUE
+			long offset = lowerBound % p;
+			for(long index = offset == 0 ? 0 : p - offset; index < size; index += p) {
+				int i = (int) index;
+				long left = remaining[i] / p;
+				if(left % p == 0) {
+					// A square factor
+					mobius[i] = 0;
+					do {
+						left /= p;
+					} while(left % p == 0);
+				}
+				else {
+					mobius[i] = (byte) -mobius[i];
+				}
+				remaining[i] = left;
+				totient[i] = totient[i] / p * (p - 1);
+				omega[i]++;
+			}
+		}
+		for(int i = 0; i < size; i++) {
+			// Anything left is a single prime above the square root of the upper bound
+			long q = remaining[i];
+			if(q > 1) {
+				totient[i] = totient[i] / q * (q - 1);
+				mobius[i] = (byte) -mobius[i];
+				omega[i]++;
+			}
+		}
+		return new Segment(lowerBound, mobius, omega, totient);
+	} // End of computeSegment
+
+	private void summarize(Segment segment) {
+		for(int i = 0; i < segment.size(); i++) {
+			this.mobiusSum += segment.mobius[i];
+			if(segment.mobius[i] != 0) {
+				this.squareFree++;
+			}
+			if(segment.omega[i] == 1 && segment.totient[i] == segment.lowerBound + i - 1) {
+				this.primes++;
+			}
+		}
+	} // End of summarize
+
+	/**
+	 * @return The name of the binary file, of the form "Arithmetic [lowerBound,upperBound).bin"
+	 */
+	protected String getFileName() {
+		return "Arithmetic [" + this.lowerBound + "," + this.upperBound + ").bin";
+	}
+
+	/**
+	 * This method prints out relevant information regarding the sieve.
+	 */
+	public void printInfo() {
+		System.out.println("This sieve computed the Mobius function, Euler's totient and the number of distinct prime "
+				+ "factors of the " + (this.upperBound - this.lowerBound) + " numbers in [" + this.lowerBound + ","
+				+ this.upperBound + ") in " + this.chunks + " chunk(s) on " + this.numberOfCores + " core(s).");
+		System.out.println("The Mobius function summed to " + this.mobiusSum + " over the range, " + this.squareFree
+				+ " of the numbers were square free and " + this.primes + " were prime.");
+		if(this.outputFile != null) {
+			System.out.println("The values were written to: " + this.outputFile);
+		}
+		System.out.println("It did this in: " + this.executionTime + " milliseconds.");
+	} // End of printInfo
+
+	/**
+	 * @param threads The number of threads to compute with
+	 */
+	public void setParallelism(int threads) {
+		this.numberOfCores = Math.max(1, threads);
+	}
+
+	/**
+	 * @param primeFactors The primes up to at least the square root of the upper bound, shared read only with
+	 * other sieves such as the jobs of a BatchJobRunner
+	 */
+	void setPrimeFactorArray(long[] primeFactors) {
+		this.primeFactors = primeFactors;
+	}
+
+	/**
+	 * @param consumer Receives every chunk in order, or null to only summarize them
+	 */
+	public void setConsumer(Consumer consumer) {
+		this.consumer = consumer;
+	}
+
+	public long getLowerBound() {
+		return this.lowerBound;
+	}
+
+	public long getUpperBound() {
+		return this.upperBound;
+	}
+
+	/**
+	 * @return The sum of the Mobius function over the range, the change in the Mertens function across it
+	 */
+	public long getMobiusSum() {
+		return this.mobiusSum;
+	}
+
+	public long getSquareFree() {
+		return this.squareFree;
+	}
+
+	public long getPrimes() {
+		return this.primes;
+	}
+
+	public String getOutputFile() {
+		return this.outputFile;
+	}
+
+	public long getExecutionTime() {
+		return this.executionTime;
+	}
+
+	/**
+	 * @return This sieve once it has run, or null if it failed
+	 */
+	public ArithmeticSieve call() {
+		try {
+			sieve();
+		}
+		catch(Exception e) {
+			System.out.println("Could not compute the arithmetic functions");
+			e.printStackTrace();
+			return null;
+		}
+		return this;
+	} // End of call
+
+} // End of ArithmeticSieve
@@ -0,0 +1,45 @@
+/**
+ * @author Josh Morgan
+ * This class is a driver to highlight the features of an ArithmeticSieve object.
+ * The summary of the range is printed, and the values can be written to a binary file of the form
+ * "Arithmetic [lowerBound,upperBound).bin".
+ */
+public class ArithmeticSieveDriver {
+
+	/**
+	 * @param args
+	 * lowerBound upperBound, optionally followed by the folder the values will be written to, and "-threads N".
+	 * If the folder is left out the values are only summarized.
+	 */
+	public static void main(String[] args) {
+		int threads = ParallelLongSieveDriver.processThreads(args);
+		args = ParallelLongSieveDriver.removeOptions(args);
+		ArithmeticSieve sieve;
+		try {
+			sieve = new ArithmeticSieve(Long.parseLong(args[0]), Long.parseLong(args[1]));
+		}
+		catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+			System.out.println("Please type the arguments as: ");
+			System.out.println("lowerBound upperBound optionalOutputFolder");
+			return;
+		}
+		if(threads > 0) {
+			sieve.setParallelism(threads);
+		}
+		try {
+			if(args.length > 2) {
+				sieve.sieveToFile(args[2]);
+			}
+			else {
+				sieve.sieve();
+			}
+		}
+		catch(Exception e) {
+			System.out.println("Could not compute the arithmetic functions");
+			e.printStackTrace();
+			return;
+		}
+		sieve.printInfo();
+	} // End of main
+
+} // End of ArithmeticSieveDriver
@@ -0,0 +1,156 @@
+import java.util.Arrays;
+
+/**
+ * @author Josh Morgan
+ * The segmented Sieve of Atkin. A number n above 3 with no square factor is prime if it has an odd number of
+ * solutions to one of the following, depending on n mod 12:
+ *     n = 4x^2 + y^2 for n mod 12 = 1 or 5
+ *     n = 3x^2 + y^2 for n mod 12 = 7
+ *     n = 3x^2 - y^2 with x > y for n mod 12 = 11
+ * Each segment flips a flag for every solution that lands in it, then clears the multiples of the squares
+ * of the prime factors. Numbers divisible by 2 or 3 are never flipped, so they are skipped for free.
+ * Every segment has to step through each x below the square root of its upper bound, so this is best for wide
+ * ranges at low offsets, where that is small compared to the size of the segment.
+ */
+public class AtkinAlgorithm implements SieveAlgorithm{
+	// The largest number whose square fits in a long
+	private static final long LARGEST_ROOT = 3037000499L;
+
+	public long[] primesBetween(long lowerBound, long upperBound, long[] primeFactors, int segmentSize) {
+		lowerBound = Math.max(0, lowerBound);
+		if(upperBound <= 2 || lowerBound >= upperBound) {
+			return new long[0];
+		}
+		PrimeEngine.PrimeList primes = new PrimeEngine.PrimeList(PrimeEngine.estimateCount(lowerBound, upperBound));
+		if(lowerBound <= 2) {
+			primes.add(2);
+		}
+		if(lowerBound <= 3 && upperBound > 3) {
+			primes.add(3);
+		}
+		// One byte per number
+		boolean[] flags = new boolean[(int) Math.min(segmentSize, upperBound - lowerBound)];
+		for(long segmentLow = lowerBound; segmentLow < upperBound; segmentLow += segmentSize) {
+			// Compared as a distance, segmentLow + segmentSize can overflow near the largest long
+			long segmentHigh = upperBound - segmentLow <= segmentSize ? upperBound : segmentLow + segmentSize;
+			sieveSegment(segmentLow, segmentHigh, flags, primeFactors, primes);
+			if(segmentHigh == upperBound) {
+				break;
+			}
+		}
+		return primes.toArray();
+	} // End of primesBetween
+
+	/**
+	 * Finds the primes above 3 in a single segment.
+	 * @param low The lower bound of the segment (inclusive)
+	 * @param high The upper bound of the segment (exclusive)
+	 * @param flags An array at least as long as the segment
+	 * @param primeFactors The primes up to at least the square root of high
+	 * @param primes The list the primes are added to
+	 */
+	private static void sieveSegment(long low, long high, boolean[] flags, long[] primeFactors,
+			PrimeEngine.PrimeList primes) {
+		int length = (int) (high - low);
+		Arrays.fill(flags, 0, length, false);
+
+		// The bounds on x are divided through so x^2 can't overflow near the largest long
+		// n = 4x^2 + y^2 is only odd for odd y, and 4x^2 < high - 1
+		for(long x = 1; x * x <= (high - 2) / 4; x++) {
+			long base = 4 * x * x;
+			long y = Math.max(1, ceilSqrt(low - base)) | 1;
+			for(; y <= LARGEST_ROOT && y * y < high - base; y += 2) {
+				long n = base + y * y;
+				int remainder = (int) (n % 12);
+				if(remainder == 1 || remainder == 5) {
+					flags[(int) (n - low)] ^= true;
+				}
+			}
+		}
+
+		// n = 3x^2 + y^2 is only odd when x + y is odd, and 3x^2 < high - 1
+		for(long x = 1; x * x <= (high - 2) / 3; x++) {
+			long base = 3 * x * x;
+			long y = Math.max(1, ceilSqrt(low - base));
+			if(((x + y) & 1) == 0) {
+				y++;
+			}
+			for(; y <= LARGEST_ROOT && y * y < high - base; y += 2) {
+				long n = base + y * y;
+				if(n % 12 == 7) {
+					flags[(int) (n - low)] ^= true;
+				}
+			}
+		}
+
+		// n = 3x^2 - y^2 is smallest at y = x - 1, where it is 2x^2 + 2x - 1 < high
+		for(long x = 2; x * x + x <= high / 2; x++) {
+			// 3x^2 can overflow near the largest long, but every n below is under high, so the wrapped
+			// arithmetic still gives it exactly
+			long base = 3 * x * x;
+			// Start from the smallest y that brings n below high, n only gets smaller as y grows
+			long y = Math.max(1, ceilSqrt(base - high + 1));
+			if(((x + y) & 1) == 0) {
+				y++;
+			}
+			for(; y < x; y += 2) {
+				long n = base - y * y;
+				if(n < low) {
+					break;
+				}
+				if(n % 12 == 11) {
+					flags[(int) (n - low)] ^= true;
+				}
+			}
+		}
+
+		// Clear the numbers with a square factor
+		for(long prime : primeFactors) {
+			if(prime < 5) {
+				continue;
+			}
+			if(prime > high / prime) {
+				break;
+			}
+			long square = prime * prime;
+			// The offset of the first multiple in the segment, from the remainder so that it can't overflow
+			long remainder = low % square;
+			long offset = Math.max(remainder == 0 ? 0 : square - remainder, square - low);
+			while(offset < length) {
+				flags[(int) offset] = false;
+				if(length - offset <= square) {
+					break;
+				}
+				offset += square;
+			}
+		}
+
+		for(int i = 0; i < length; i++) {
+			if(flags[i]) {
+				primes.add(low + i);
+			}
+		}
+	} // End of sieveSegment
+
+	/**
+	 * @return The smallest non negative r with r * r >= value
+	 */
+	private static long ceilSqrt(long value) {
+		if(value <= 0) {
+			return 0;
+		}
+		long root = (long) Math.sqrt((double) value);
+		while(root <= LARGEST_ROOT && root * root < value) {
+			root++;
+		}
+		while(root > 0 && (root - 1) * (root - 1) >= value) {
+			root--;
+		}
+		return root;
+	} // End of ceilSqrt
+
+	public String getName() {
+		return "atkin";
+	}
+
+} // End of AtkinAlgorithm
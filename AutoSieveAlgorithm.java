@@ -0,0 +1,121 @@
+/**
+ * @author Josh Morgan
+ * Picks the faster of two algorithms for each range. Small ranges always go to the first algorithm, since they
+ * finish before a calibration would. The first large range runs a short calibration that times both algorithms
+ * on a sample at a low and at a high offset, and fits each to the cost model
+ *     time = rate * size + overhead * sqrt(upperBound) * (segments + 1)
+ * where the second term is the work each segment does before it reaches its own numbers, such as the divisions of
+ * the Sieve of Eratosthenes or the x loops of the Sieve of Atkin. Every later range goes to the algorithm with
+ * the lower predicted time.
+ */
+public class AutoSieveAlgorithm implements SieveAlgorithm{
+	// Ranges smaller than this go straight to the first algorithm
+	private static final long SMALL_RANGE = 1L << 22;
+	// The size of the range sieved by each calibration run
+	private static final long SAMPLE_SIZE = 1L << 21;
+	// The lower bound of the sample at a high offset
+	private static final long HIGH_OFFSET = 1_000_000_000_000L;
+	// The segment size used to count segments in the cost model
+	private static final long SEGMENT = 1L << 18;
+
+	private SieveAlgorithm first;
+	private SieveAlgorithm second;
+	// The fitted rate and overhead of each algorithm, set by calibrate
+	private double[] firstCost;
+	private double[] secondCost;
+	// The milliseconds the calibration took, -1 until it has run
+	private long calibrationTime = -1;
+
+	/**
+	 * @param first The algorithm used for small ranges and whenever the calibration can't tell them apart
+	 * @param second The other algorithm
+	 */
+	AutoSieveAlgorithm(SieveAlgorithm first, SieveAlgorithm second){
+		this.first = first;
+		this.second = second;
+	} // End of Constructor
+
+	public long[] primesBetween(long lowerBound, long upperBound, long[] primeFactors, int segmentSize) {
+		return choose(lowerBound, upperBound).primesBetween(lowerBound, upperBound, primeFactors, segmentSize);
+	} // End of primesBetween
+
+	/**
+	 * @param lowerBound The lower bound of the range (inclusive)
+	 * @param upperBound The upper bound of the range (exclusive)
+	 * @return The algorithm that is predicted to sieve the range the fastest
+	 */
+	public SieveAlgorithm choose(long lowerBound, long upperBound) {
+		if(upperBound - lowerBound < SMALL_RANGE) {
+			return this.first;
+		}
+		calibrate();
+		double firstTime = predict(this.firstCost, lowerBound, upperBound);
+		double secondTime = predict(this.secondCost, lowerBound, upperBound);
+		return secondTime < firstTime ? this.second : this.first;
+	} // End of choose
+
+	/**
+	 * Times both algorithms once, the first time a large range is sieved.
+	 */
+	private synchronized void calibrate() {
+		if(this.firstCost != null) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		long[] primeFactors = PrimeEngine.primeFactors((long) Math.sqrt(HIGH_OFFSET + SAMPLE_SIZE) + 1);
+		double[] firstCost = fit(this.first, primeFactors);
+		this.secondCost = fit(this.second, primeFactors);
+		this.firstCost = firstCost;
+		this.calibrationTime = System.currentTimeMillis() - start;
+	} // End of calibrate
+
+	/**
+	 * Solves the cost model of an algorithm from a sample at a low and at a high offset.
+	 * @return The rate and the overhead of the algorithm
+	 */
+	private static double[] fit(SieveAlgorithm algorithm, long[] primeFactors) {
+		double lowTime = time(algorithm, 0, primeFactors);
+		double highTime = time(algorithm, HIGH_OFFSET, primeFactors);
+		double lowWork = work(0, SAMPLE_SIZE);
+		double highWork = work(HIGH_OFFSET, HIGH_OFFSET + SAMPLE_SIZE);
+		double overhead = Math.max(0, (highTime - lowTime) / (highWork - lowWork));
+		double rate = Math.max(0, (lowTime - overhead * lowWork) / SAMPLE_SIZE);
+		return new double[] {rate, overhead};
+	} // End of fit
+
+	/**
+	 * @return The fastest of two runs on the sample, so the first run can warm up the JIT
+	 */
+	private static double time(SieveAlgorithm algorithm, long lowerBound, long[] primeFactors) {
+		long best = Long.MAX_VALUE;
+		for(int i = 0; i < 2; i++) {
+			long start = System.nanoTime();
+			algorithm.primesBetween(lowerBound, lowerBound + SAMPLE_SIZE, primeFactors);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		return best;
+	} // End of time
+
+	/**
+	 * @return The second term of the cost model, without the overhead
+	 */
+	private static double work(long lowerBound, long upperBound) {
+		return Math.sqrt((double) upperBound) * ((upperBound - lowerBound) / SEGMENT + 1);
+	} // End of work
+
+	private static double predict(double[] cost, long lowerBound, long upperBound) {
+		return cost[0] * (upperBound - lowerBound) + cost[1] * work(lowerBound, upperBound);
+	} // End of predict
+
+	/**
+	 * @return The milliseconds the calibration took, or -1 if it hasn't run
+	 */
+	public synchronized long getCalibrationTime() {
+		return this.calibrationTime;
+	}
+
+	public String getName() {
+		return "auto";
+	}
+
+} // End of AutoSieveAlgorithm
@@ -0,0 +1,384 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author Josh Morgan
+ * A Batch Job Runner runs many sieve jobs from a job file in one JVM without asking anything, so a scheduler
+ * doesn't have to start a cold JVM for every job.
+ * The optimizations for this runner are:
+ *     Running every job on one executor, created once for the whole batch.
+ *     Generating the prime factors once, for the largest upper bound in the batch, and sharing them read only
+ *     with every job, since each sieve ignores the factors past its own square root.
+ *     Warming up the JIT, the segment size and, if a job asks for it, the automatic algorithm choice on a small
+ *     range before the first job, so no job pays for them.
+ * Each line of the job file is "mode lowerBound upperBound outputFolder" followed by any of the options of the
+ * ParallelLongSieveDriver ("-algorithm", "-segment", "-memory" and "-threads"). The output folder can be "-" to
+ * only count the results. Blank lines and lines starting with # are skipped, a line that can't be read or a job
+ * whose bounds aren't 0 <= lowerBound < upperBound is recorded in the summary as failed. The modes are:
+ *     primes: the primes in [lowerBound,upperBound), written to "Primes [lowerBound,upperBound).txt".
+ *     arithmetic: the Mobius function, totient and number of distinct prime factors, written to
+ *     "Arithmetic [lowerBound,upperBound).bin".
+ *     iterate: "iterate lowerBound delta iterations outputFolder", a primes job for each delta like an IterativePLS.
+ * A line is appended to the summary file as each job finishes, so the summary of a stopped batch is still
+ * complete up to the job that was running.
+ */
+public class BatchJobRunner implements Callable<BatchJobRunner>{
+	// The range sieved to warm up the JIT, large enough to run the automatic algorithm's calibration
+	private static final long WARM_UP_LOWER_BOUND = 1_000_000_000_000L;
+	private static final long WARM_UP_SIZE = 1 << 22;
+
+	private String jobFile;
+	private String summaryFile;
+	private ArrayList<Job> jobs;
+	private int numberOfCores;
+	private int warmUpRounds = 3;
+	private CancellationToken cancellation;
+	private long[] primeFactors;
+	private long warmUpTime;
+	private long factorTime;
+	private int completedJobs;
+	private int failedJobs;
+	private long executionTime;
+
+	/**
+	 * A single line of the job file.
+	 */
+	static class Job {
+		private int line;
+		private String mode;
+		private long lowerBound;
+		private long upperBound;
+		private String outputFolder;
+		private SieveAlgorithm algorithm;
+		private int segmentSize;
+		private long memoryBudget;
+		private int threads;
+
+		// Why the line couldn't be read, null if it could
+		private String error;
+
+		Job(int line, String mode, long lowerBound, long upperBound, String outputFolder){
+			this.line = line;
+			this.mode = mode;
+			this.lowerBound = lowerBound;
+			this.upperBound = upperBound;
+			this.outputFolder = outputFolder;
+		} // End of Constructor
+
+		public String toString() {
+			return this.mode + " [" + this.lowerBound + "," + this.upperBound + ")";
+		}
+	} // End of Job
+
+	/**
+	 * @param jobFile The path of the job file
+	 * @param summaryFile The path of the summary file, which is replaced
+	 */
+	BatchJobRunner(String jobFile, String summaryFile){
+		this.jobFile = jobFile;
+		this.summaryFile = summaryFile;
+		this.numberOfCores = ParallelLongSieve.getAvailableCores();
+	} // End of Constructor
+
+	/**
+	 * Reads the job file. A line that can't be read becomes a job that fails, so it is still in the summary.
+	 */
+	private void readJobs() throws IOException {
+		this.jobs = new ArrayList<Job>();
+		try(BufferedReader reader = new BufferedReader(new FileReader(this.jobFile))) {
+			String line;
+			int number = 0;
+			while((line = reader.readLine()) != null) {
+				number++;
+				line = line.trim();
+				if(line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String[] words = line.split("\\s+");
+				try {
+					this.jobs.addAll(parseJob(number, words));
+				}
+				catch(NumberFormatException | ArrayIndexOutOfBoundsException e) {
+					System.out.println("Could not read line " + number + " of the job file: " + line);
+					Job unreadable = new Job(number, words[0].toLowerCase(), 0, 0, null);
+					// Joined with spaces so the line can't add columns to the summary
+					unreadable.error = "could not read \"" + String.join(" ", words) + "\"";
+					this.jobs.add(unreadable);
+				}
+			}
+		}
+	} // End of readJobs
+
+	/**
+	 * @param line The line number, for the summary
+	 * @param args The words of the line
+	 * @return The jobs of the line, more than one for an iterate line
+	 */
+	private static ArrayList<Job> parseJob(int line, String[] args) {
+		// A lone "-" is the missing output folder, not an option that takes the next word as its value
+		String[] words = Arrays.copyOf(args, args.length);
+		for(int i = 0; i < words.length; i++) {
+			if(words[i].equals("-")) {
+				words[i] = "";
+			}
+		}
+		String[] positional = ParallelLongSieveDriver.removeOptions(words);
+		String mode = positional[0].toLowerCase();
+		ArrayList<Job> jobs = new ArrayList<Job>();
+		switch(mode) {
+			case "primes" :
+			case "arithmetic" :
+				jobs.add(new Job(line, mode, Long.parseLong(positional[1]), Long.parseLong(positional[2]),
+						outputFolder(positional, 3)));
+				break;
+			case "iterate" :
+				long lowerBound = Long.parseLong(positional[1]);
+				long delta = Long.parseLong(positional[2]);
+				long iterations = Long.parseLong(positional[3]);
+				for(long i = 0; i < iterations; i++) {
+					jobs.add(new Job(line, "primes", lowerBound + i * delta, lowerBound + (i + 1) * delta,
+							outputFolder(positional, 4)));
+				}
+				break;
+			default : throw new NumberFormatException("Unknown mode " + mode);
+		}
+		String[] options = Arrays.copyOf(args, args.length);
+		for(Job job : jobs) {
+			job.algorithm = ParallelLongSieveDriver.processAlgorithm(options);
+			job.segmentSize = ParallelLongSieveDriver.processSegmentSize(options);
+			job.memoryBudget = ParallelLongSieveDriver.processMemory(options);
+			job.threads = ParallelLongSieveDriver.processThreads(options);
+		}
+		return jobs;
+	} // End of parseJob
+
+	/**
+	 * @return The output folder at the index, or null if it is missing or was "-"
+	 */
+	private static String outputFolder(String[] args, int index) {
+		if(index >= args.length || args[index].isEmpty()) {
+			return null;
+		}
+		return args[index];
+	} // End of outputFolder
+
+	/**
+	 * Reads the jobs, warms up and runs every job on one executor, writing the summary as they finish.
+	 */
+	private void runJobs() throws IOException {
+		long start = System.currentTimeMillis();
+		readJobs();
+		ExecutorService EXEC = Executors.newFixedThreadPool(this.numberOfCores);
+		try(PrintWriter summary = new PrintWriter(new FileWriter(this.summaryFile))) {
+			summary.println("line\tmode\tlowerBound\tupperBound\tstatus\tresult\tmilliseconds\toutput");
+			summary.flush();
+			warmUp(EXEC);
+			generateFactors();
+			for(Job job : this.jobs) {
+				if(this.cancellation != null && this.cancellation.isCancelled()) {
+					summary.println(summarize(job, "cancelled", "", 0, null));
+					continue;
+				}
+				long jobStart = System.currentTimeMillis();
+				String[] result;
+				try {
+					result = runJob(job, EXEC);
+				}
+				catch(Exception e) {
+					System.out.println("Job " + job + " from line " + job.line + " failed");
+					e.printStackTrace();
+					result = new String[] {"failed", e.toString(), null};
+				}
+				if(result[0].equals("done")) {
+					this.completedJobs++;
+				}
+				else {
+					this.failedJobs++;
+				}
+				long time = System.currentTimeMillis() - jobStart;
+				System.out.println(job + " " + result[0] + " in " + time + " milliseconds: " + result[1]);
+				summary.println(summarize(job, result[0], result[1], time, result[2]));
+				summary.flush();
+			}
+		}
+		finally {
+			EXEC.shutdown();
+		}
+		this.executionTime = System.currentTimeMillis() - start;
+	} // End of runJobs
+
+	/**
+	 * @return The status, the result and the output file of the job, or null for the output file if there isn't one
+	 */
+	private String[] runJob(Job job, ExecutorService EXEC) throws Exception {
+		if(job.error != null) {
+			return new String[] {"failed", job.error, null};
+		}
+		if(! hasValidRange(job)) {
+			return new String[] {"failed", "the bounds must be 0 <= lowerBound < upperBound", null};
+		}
+		if(job.outputFolder != null) {
+			Files.createDirectories(Paths.get(job.outputFolder));
+		}
+		if(job.mode.equals("arithmetic")) {
+			ArithmeticSieve sieve = new ArithmeticSieve(job.lowerBound, job.upperBound);
+			sieve.setParallelism(job.threads > 0 ? job.threads : this.numberOfCores);
+			sieve.setPrimeFactorArray(this.primeFactors);
+			if(job.outputFolder == null) {
+				sieve.sieve(EXEC);
+			}
+			else {
+				sieve.sieveToFile(job.outputFolder, EXEC);
+			}
+			return new String[] {"done", "mobius sum " + sieve.getMobiusSum() + ", " + sieve.getSquareFree()
+					+ " square free, " + sieve.getPrimes() + " primes", sieve.getOutputFile()};
+		}
+		ParallelLongSieve sieve = new ParallelLongSieve(job.lowerBound, job.upperBound, null, job.outputFolder);
+		// The shared executor has a thread for each core
+		sieve.setParallelism(job.threads >= 0 ? job.threads : this.numberOfCores);
+		sieve.setAlgorithm(job.algorithm);
+		sieve.setSegmentSize(job.segmentSize);
+		sieve.setMemoryBudget(job.memoryBudget);
+		sieve.setCancellationToken(this.cancellation);
+		sieve.setPrimeFactorArray(this.primeFactors);
+		// Only the count is reported without an output folder, so the segments never box their primes
+		sieve.setCountOnly(job.outputFolder == null);
+		sieve.parallelSieve(EXEC);
+		String result = sieve.getPrimeCount() + " primes";
+		String outputFile = sieve.getOutputFile() == null ? null
+				: Paths.get(job.outputFolder, sieve.getOutputFile()).toString();
+		if(sieve.isPartial()) {
+			return new String[] {"cancelled", result + " below " + sieve.getCompletedUpperBound(), outputFile};
+		}
+		if(job.outputFolder != null && outputFile == null) {
+			return new String[] {"failed", "could not write the primes", null};
+		}
+		return new String[] {"done", result, outputFile};
+	} // End of runJob
+
+	/**
+	 * @return True if the job covers at least one number from 0 up
+	 */
+	private static boolean hasValidRange(Job job) {
+		return job.lowerBound >= 0 && job.lowerBound < job.upperBound;
+	} // End of hasValidRange
+
+	private static String summarize(Job job, String status, String result, long time, String outputFile) {
+		return job.line + "\t" + job.mode + "\t" + job.lowerBound + "\t" + job.upperBound + "\t" + status + "\t"
+				+ result + "\t" + time + "\t" + (outputFile == null ? "" : outputFile);
+	} // End of summarize
+
+	/**
+	 * Sieves a small range a few times so the JIT has compiled the sieves, and the segment size and, when a job
+	 * uses it, the automatic algorithm's calibration are picked, before the first job.
+	 */
+	private void warmUp(ExecutorService EXEC) {
+		long start = System.currentTimeMillis();
+		// The automatic choice is only calibrated if a job will use it
+		boolean calibrate = false;
+		for(Job job : this.jobs) {
+			calibrate |= job.algorithm == SieveAlgorithm.AUTO;
+		}
+		for(int i = 0; i < this.warmUpRounds; i++) {
+			ParallelLongSieve sieve = new ParallelLongSieve(WARM_UP_LOWER_BOUND, WARM_UP_LOWER_BOUND + WARM_UP_SIZE,
+					null, null);
+			sieve.setParallelism(this.numberOfCores);
+			if(calibrate) {
+				sieve.setAlgorithm(SieveAlgorithm.AUTO);
+			}
+			sieve.parallelSieve(EXEC);
+			ArithmeticSieve arithmetic = new ArithmeticSieve(WARM_UP_LOWER_BOUND, WARM_UP_LOWER_BOUND + WARM_UP_SIZE / 16);
+			arithmetic.setParallelism(this.numberOfCores);
+			arithmetic.call();
+		}
+		this.warmUpTime = System.currentTimeMillis() - start;
+	} // End of warmUp
+
+	/**
+	 * Generates the prime factors for the largest upper bound in the batch, shared by every job.
+	 */
+	private void generateFactors() {
+		long start = System.currentTimeMillis();
+		long largest = 0;
+		for(Job job : this.jobs) {
+			if(job.error == null && hasValidRange(job)) {
+				largest = Math.max(largest, job.upperBound);
+			}
+		}
+		this.primeFactors = PrimeEngine.primeFactors((long) Math.sqrt(largest) + 1, this.numberOfCores);
+		this.factorTime = System.currentTimeMillis() - start;
+	} // End of generateFactors
+
+	/**
+	 * This method prints out relevant information regarding the batch.
+	 */
+	public void printInfo() {
+		System.out.println("This batch ran " + (this.jobs == null ? 0 : this.jobs.size()) + " job(s) from "
+				+ this.jobFile + " on " + this.numberOfCores + " core(s): " + this.completedJobs + " finished and "
+				+ this.failedJobs + " didn't.");
+		System.out.println("The JIT was warmed up in " + this.warmUpTime + " milliseconds and the "
+				+ (this.primeFactors == null ? 0 : this.primeFactors.length) + " shared prime factors were generated in "
+				+ this.factorTime + " milliseconds.");
+		System.out.println("The summary was written to: " + this.summaryFile);
+		System.out.println("It did this in: " + this.executionTime + " milliseconds.");
+	} // End of printInfo
+
+	/**
+	 * @param threads The number of threads in the shared executor
+	 */
+	public void setParallelism(int threads) {
+		this.numberOfCores = Math.max(1, threads);
+	}
+
+	/**
+	 * @param warmUpRounds The number of times the warm up range is sieved, 0 to skip the warm up
+	 */
+	public void setWarmUpRounds(int warmUpRounds) {
+		this.warmUpRounds = Math.max(0, warmUpRounds);
+	}
+
+	/**
+	 * @param cancellation A token another thread can cancel to stop the running job and skip the rest, or null
+	 */
+	public void setCancellationToken(CancellationToken cancellation) {
+		this.cancellation = cancellation;
+	}
+
+	public int getCompletedJobs() {
+		return this.completedJobs;
+	}
+
+	public int getFailedJobs() {
+		return this.failedJobs;
+	}
+
+	public long getExecutionTime() {
+		return this.executionTime;
+	}
+
+	/**
+	 * @return This runner once every job has run, or null if the job or summary file couldn't be used
+	 */
+	public BatchJobRunner call() {
+		try {
+			runJobs();
+		}
+		catch(IOException e) {
+			System.out.println("Could not read the job file or write the summary");
+			e.printStackTrace();
+			return null;
+		}
+		return this;
+	} // End of call
+
+} // End of BatchJobRunner
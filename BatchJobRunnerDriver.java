@@ -0,0 +1,67 @@
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * @author Josh Morgan
+ * This class is a driver to highlight the features of a BatchJobRunner object.
+ * It never reads from standard input, so it can be started by a scheduler.
+ */
+public class BatchJobRunnerDriver {
+
+	/**
+	 * @param args
+	 * The first argument is the job file, see BatchJobRunner for its format.
+	 * The second argument is the summary file, "jobFile.summary" if it is left out.
+	 * Optionally followed by "-threads N" for the size of the shared executor and "-warmup N" for the number of
+	 * warm up rounds, 0 to skip them.
+	 * Stopping the JVM (for example with Ctrl-C) cancels the running job and skips the rest.
+	 */
+	public static void main(String[] args) {
+		int threads = ParallelLongSieveDriver.processThreads(args);
+		int warmUpRounds = processWarmUp(args);
+		args = ParallelLongSieveDriver.removeOptions(args);
+		if(args.length == 0) {
+			System.out.println("Please type the arguments as: ");
+			System.out.println("jobFile optionalSummaryFile");
+			return;
+		}
+		BatchJobRunner runner = new BatchJobRunner(args[0], args.length > 1 ? args[1] : args[0] + ".summary");
+		if(threads > 0) {
+			runner.setParallelism(threads);
+		}
+		if(warmUpRounds >= 0) {
+			runner.setWarmUpRounds(warmUpRounds);
+		}
+		CancellationToken cancellation = new CancellationToken();
+		CountDownLatch finished = new CountDownLatch(1);
+		runner.setCancellationToken(cancellation);
+		ParallelLongSieveDriver.cancelOnShutdown(cancellation, finished);
+		try {
+			if(runner.call() != null) {
+				runner.printInfo();
+			}
+		}
+		finally {
+			// Even if the batch threw, so the shutdown hook never waits forever
+			finished.countDown();
+		}
+	} // End of main
+
+	/**
+	 * @param args The command line arguments
+	 * @return The number of warm up rounds given with "-warmup", or -1 if it wasn't given
+	 */
+	public static int processWarmUp(String[] args) {
+		String rounds = ParallelLongSieveDriver.getOption(args, "-warmup");
+		if(rounds == null) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(rounds);
+		}
+		catch(NumberFormatException e) {
+			System.out.println("Could not read the warm up rounds, using the default");
+			return -1;
+		}
+	} // End of processWarmUp
+
+} // End of BatchJobRunnerDriver
@@ -0,0 +1,385 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Josh Morgan
+ * A class for testing the primality of a large, unsorted batch of longs.
+ * The optimizations for this algorithm are:
+ *     Sorting the queries so values that are close together can be sieved as a single segment.
+ *     Testing isolated values with a deterministic Miller-Rabin test instead of building a sieve for each one.
+ *     Splitting the segments and the isolated values between the cores of the machine.
+ * The results are returned in the same order as the input values.
+ */
+public class BatchPrimality implements Callable<boolean[]>{
+	// Roughly how many numbers a segment can sieve in the time it takes to run one Miller-Rabin test
+	private static final long MILLER_RABIN_COST = 2048;
+	// The number of isolated values handed to a thread at a time
+	private static final int OUTLIER_CHUNK = 4096;
+	// The witnesses that make Miller-Rabin deterministic for every value below 2^64
+	private static final long[] WITNESSES = {2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37};
+	// The witnesses that make Miller-Rabin deterministic for every value below 4,759,123,141
+	private static final long[] SMALL_WITNESSES = {2, 7, 61};
+	// The largest value whose square still fits in a long
+	private static final long SQUARE_LIMIT = 3037000499L;
+
+	private long[] values;
+	private boolean[] results;
+	private int numberOfCores;
+	private long maxSegmentSize;
+	private long factorLimit;
+	private long[] primeFactors;
+	private int segments;
+	private int segmentedValues;
+	private int outliers;
+	private long executionTime;
+
+	/**
+	 * @param values The values to be tested, in any order and possibly containing duplicates
+	 */
+	BatchPrimality(long[] values){
+		this.values = values;
+		this.maxSegmentSize = 1 << 22;
+		this.factorLimit = 1 << 24;
+		// Honours a container CPU quota, like the other sieves
+		this.numberOfCores = ParallelLongSieve.getAvailableCores();
+	} // End of Constructor
+
+	/**
+	 * @param values The values to be tested, in any order and possibly containing duplicates
+	 * @param maxSegmentSize The largest range of numbers that will be sieved as a single segment
+	 * @param factorLimit The largest prime that will be used to sieve segments, values above its square are always
+	 * tested individually
+	 */
+	BatchPrimality(long[] values, long maxSegmentSize, long factorLimit){
+		this(values);
+		this.maxSegmentSize = maxSegmentSize;
+		this.factorLimit = Math.max(1, factorLimit);
+	} // End of Constructor
+
+	/**
+	 * This method sorts a copy of the values, groups the sorted values into dense clusters and isolated outliers,
+	 * then tests every group in parallel and maps the results back to the order of the input.
+	 */
+	private void testValues() {
+		this.results = new boolean[this.values.length];
+		this.segments = 0;
+		this.segmentedValues = 0;
+		this.outliers = 0;
+		if(this.values.length == 0) {
+			return;
+		}
+		long[] sorted = this.values.clone();
+		Arrays.parallelSort(sorted);
+		boolean[] sortedResults = new boolean[sorted.length];
+
+		ArrayList<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+		int[] outlierIndices = new int[OUTLIER_CHUNK];
+		int outlierCount = 0;
+		long largestSegmentValue = 0;
+		ArrayList<int[]> clusters = new ArrayList<int[]>();
+
+		int start = 0;
+		while(start < sorted.length) {
+			int end = start;
+			// Grow the group while the next value is close enough that sieving the gap is cheaper than testing it
+			while(end + 1 < sorted.length
+					&& sorted[end + 1] - sorted[end] <= MILLER_RABIN_COST
+					&& sorted[end + 1] - sorted[start] < this.maxSegmentSize) {
+				end++;
+			}
+			if(isWorthSieving(sorted, start, end)) {
+				clusters.add(new int[] {start, end});
+				largestSegmentValue = Math.max(largestSegmentValue, sorted[end]);
+			}
+			else {
+				for(int i = start; i <= end; i++) {
+					if(i > start && sorted[i] == sorted[i - 1]) {
+						// Duplicates will be copied after the tests have run
+						continue;
+					}
+					outlierIndices[outlierCount++] = i;
+					if(outlierCount == OUTLIER_CHUNK) {
+						tasks.add(outlierTask(sorted, sortedResults, outlierIndices, outlierCount));
+						this.outliers += outlierCount;
+						outlierIndices = new int[OUTLIER_CHUNK];
+						outlierCount = 0;
+					}
+				}
+			}
+			start = end + 1;
+		}
+		if(outlierCount > 0) {
+			tasks.add(outlierTask(sorted, sortedResults, outlierIndices, outlierCount));
+			this.outliers += outlierCount;
+		}
+
+		if(! clusters.isEmpty()) {
+			// Only the primes needed for the largest clustered value are generated
+			this.primeFactors = PrimeEngine.primeFactors((long) Math.ceil(Math.sqrt(largestSegmentValue + 1)),
+					this.numberOfCores);
+			for(int[] cluster : clusters) {
+				tasks.add(segmentTask(sorted, sortedResults, cluster[0], cluster[1]));
+				this.segments++;
+				this.segmentedValues += cluster[1] - cluster[0] + 1;
+			}
+		}
+
+		ExecutorService EXEC = Executors.newFixedThreadPool(this.numberOfCores);
+		try {
+			runAll(EXEC, tasks);
+
+			// Fill in the duplicates skipped above, they always follow the value that was tested
+			for(int i = 1; i < sorted.length; i++) {
+				if(sorted[i] == sorted[i - 1]) {
+					sortedResults[i] = sortedResults[i - 1];
+				}
+			}
+
+			// Map the sorted results back to the order of the input
+			ArrayList<Callable<Void>> mappers = new ArrayList<Callable<Void>>();
+			int chunk = Math.max(OUTLIER_CHUNK, this.values.length / this.numberOfCores + 1);
+			for(int from = 0; from < this.values.length; from += chunk) {
+				final int lower = from;
+				final int upper = Math.min(this.values.length, from + chunk);
+				mappers.add(() -> {
+					for(int i = lower; i < upper; i++) {
+						this.results[i] = sortedResults[Arrays.binarySearch(sorted, this.values[i])];
+					}
+					return null;
+				});
+			}
+			runAll(EXEC, mappers);
+		}
+		catch(Exception e) {
+			e.printStackTrace();
+		}
+		finally {
+			EXEC.shutdown();
+		}
+	} // End of testValues
+
+	/**
+	 * @param sorted The sorted values
+	 * @param start The index of the first value in the group (inclusive)
+	 * @param end The index of the last value in the group (inclusive)
+	 * @return True if sieving the range of the group is cheaper than testing each of its values
+	 */
+	private boolean isWorthSieving(long[] sorted, int start, int end) {
+		// Divided rather than squared, the square of the factor limit can overflow
+		if(end == start || sorted[start] < 2 || sorted[end] / this.factorLimit >= this.factorLimit) {
+			return false;
+		}
+		long span = sorted[end] - sorted[start] + 1;
+		// Every prime factor is used at least once per segment, approximated by x / ln(x)
+		double limit = Math.sqrt(sorted[end]);
+		double factorCost = limit / Math.max(1, Math.log(limit));
+		return span + factorCost < (double) (end - start + 1) * MILLER_RABIN_COST;
+	} // End of isWorthSieving
+
+	/**
+	 * @return A task that tests each of the given values with Miller-Rabin
+	 */
+	private Callable<Void> outlierTask(long[] sorted, boolean[] sortedResults, int[] indices, int count){
+		return () -> {
+			for(int i = 0; i < count; i++) {
+				sortedResults[indices[i]] = isPrime(sorted[indices[i]]);
+			}
+			return null;
+		};
+	} // End of outlierTask
+
+	/**
+	 * @return A task that sieves the range covered by a cluster of sorted values and reads their results from it
+	 */
+	private Callable<Void> segmentTask(long[] sorted, boolean[] sortedResults, int start, int end){
+		return () -> {
+			long[] primes = PrimeEngine.primesBetween(sorted[start], sorted[end] + 1, this.primeFactors);
+			// Both lists are sorted, so a single pass matches the values to the primes
+			int p = 0;
+			for(int i = start; i <= end; i++) {
+				while(p < primes.length && primes[p] < sorted[i]) {
+					p++;
+				}
+				sortedResults[i] = p < primes.length && primes[p] == sorted[i];
+			}
+			return null;
+		};
+	} // End of segmentTask
+
+	/**
+	 * Runs the tasks on the executor and waits for every one of them, rethrowing the first failure.
+	 */
+	private static void runAll(ExecutorService EXEC, List<Callable<Void>> tasks) throws Exception {
+		List<Future<Void>> futures = EXEC.invokeAll(tasks);
+		for(Future<Void> future : futures) {
+			future.get();
+		}
+	} // End of runAll
+
+	/**
+	 * A deterministic Miller-Rabin test for any non negative long.
+	 * @param n The value to be tested
+	 * @return True if n is prime
+	 */
+	public static boolean isPrime(long n) {
+		if(n < 2) {
+			return false;
+		}
+		for(long prime : WITNESSES) {
+			if(n % prime == 0) {
+				return n == prime;
+			}
+		}
+		if(n < 41 * 41) {
+			// Every composite below this has a factor in the witnesses
+			return true;
+		}
+		long d = n - 1;
+		int s = Long.numberOfTrailingZeros(d);
+		d >>>= s;
+		if(n <= SQUARE_LIMIT) {
+			// The products fit in a long, so no Montgomery form is needed
+			for(long a : SMALL_WITNESSES) {
+				if(! smallWitness(n, a, d, s)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		long inverse = n;
+		for(int i = 0; i < 5; i++) {
+			// Newton's method doubles the correct low bits of n^-1 mod 2^64 every step
+			inverse *= 2 - n * inverse;
+		}
+		long negativeInverse = -inverse;
+		long one = Long.remainderUnsigned(-n, n);
+		long minusOne = n - one;
+		long rSquared = one;
+		for(int i = 0; i < 64; i++) {
+			rSquared <<= 1;
+			if(Long.compareUnsigned(rSquared, n) >= 0) {
+				rSquared -= n;
+			}
+		}
+		for(long a : WITNESSES) {
+			long x = montgomeryPow(montgomeryMultiply(a, rSquared, n, negativeInverse), d, one, n, negativeInverse);
+			if(x == one || x == minusOne) {
+				continue;
+			}
+			boolean witness = true;
+			for(int r = 1; r < s; r++) {
+				x = montgomeryMultiply(x, x, n, negativeInverse);
+				if(x == minusOne) {
+					witness = false;
+					break;
+				}
+			}
+			if(witness) {
+				return false;
+			}
+		}
+		return true;
+	} // End of isPrime
+
+	/**
+	 * @return False if a proves n is composite
+	 */
+	private static boolean smallWitness(long n, long a, long d, int s) {
+		long x = 1;
+		long base = a % n;
+		for(long e = d; e > 0; e >>= 1) {
+			if((e & 1) == 1) {
+				x = x * base % n;
+			}
+			base = base * base % n;
+		}
+		if(x == 1 || x == n - 1) {
+			return true;
+		}
+		for(int r = 1; r < s; r++) {
+			x = x * x % n;
+			if(x == n - 1) {
+				return true;
+			}
+		}
+		return false;
+	} // End of smallWitness
+
+	/**
+	 * @return a * b * 2^-64 mod n, with a and b in Montgomery form
+	 */
+	private static long montgomeryMultiply(long a, long b, long n, long negativeInverse) {
+		long low = a * b;
+		long high = unsignedMultiplyHigh(a, b);
+		long m = low * negativeInverse;
+		long t = high + unsignedMultiplyHigh(m, n) + (low != 0 ? 1 : 0);
+		// n is below 2^63, so t is below 2n and can't overflow
+		if(Long.compareUnsigned(t, n) >= 0) {
+			t -= n;
+		}
+		return t;
+	} // End of montgomeryMultiply
+
+	/**
+	 * @return base^exponent in Montgomery form
+	 */
+	private static long montgomeryPow(long base, long exponent, long one, long n, long negativeInverse) {
+		long result = one;
+		for(long e = exponent; e > 0; e >>>= 1) {
+			if((e & 1) == 1) {
+				result = montgomeryMultiply(result, base, n, negativeInverse);
+			}
+			base = montgomeryMultiply(base, base, n, negativeInverse);
+		}
+		return result;
+	} // End of montgomeryPow
+
+	/**
+	 * @return The high 64 bits of the unsigned 128 bit product of a and b
+	 */
+	private static long unsignedMultiplyHigh(long a, long b) {
+		return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+	} // End of unsignedMultiplyHigh
+
+	/**
+	 * This method prints out relevant information regarding the batch.
+	 */
+	public void printInfo() {
+		System.out.println("This batch tested " + this.values.length + " values using " + this.numberOfCores + " core(s).");
+		System.out.println(this.segmentedValues + " values were sieved in " + this.segments + " segment(s) of at most "
+				+ this.maxSegmentSize + " numbers.");
+		System.out.println(this.outliers + " values were tested individually with Miller-Rabin.");
+		System.out.println("It did this in: " + this.executionTime + " milliseconds.");
+	} // End of printInfo
+
+	public long[] getValues() {
+		return this.values;
+	}
+
+	public boolean[] getResults() {
+		return this.results;
+	}
+
+	public long getExecutionTime() {
+		return this.executionTime;
+	}
+
+	/**
+	 * @return The primality of each value, in the same order as the values were given
+	 * This implements the callable interface for parallel execution and also allows the driver to run the batch
+	 */
+	public boolean[] call() {
+		long start = System.currentTimeMillis();
+		testValues();
+		long end = System.currentTimeMillis();
+		this.executionTime = end - start;
+		return this.results;
+	} // End of call
+
+} // End of BatchPrimality
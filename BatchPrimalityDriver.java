@@ -0,0 +1,91 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+/**
+ * @author Josh Morgan
+ * This class is a driver to highlight the features of a BatchPrimality object.
+ * The values to be tested are read from a file with one long per line.
+ * The results are written to a second file with "value true" or "value false" on each line.
+ */
+public class BatchPrimalityDriver {
+
+	/**
+	 * @param args
+	 * The first argument is the file of values to be tested.
+	 * The second argument is the file the results will be written to, if it is left out they are only counted.
+	 */
+	public static void main(String[] args) {
+		if(args.length == 0) {
+			System.out.println("Please type the arguments as: ");
+			System.out.println("inputFile optionalOutputFile");
+			return;
+		}
+		long[] values = readValues(args[0]);
+		if(values != null) {
+			BatchPrimality batch = new BatchPrimality(values);
+			boolean[] results = batch.call();
+			int primes = 0;
+			for(boolean result : results) {
+				if(result) {
+					primes++;
+				}
+			}
+			System.out.println(primes + " of the values are prime.");
+			if(args.length > 1) {
+				writeResults(args[1], values, results);
+			}
+			batch.printInfo();
+		}
+	} // End of main
+
+	/**
+	 * @param inputFile The path of a file containing one long per line
+	 * @return The values in the file, or null if it could not be read
+	 */
+	public static long[] readValues(String inputFile) {
+		try(BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
+			long[] values = new long[1024];
+			int count = 0;
+			String line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty()) {
+					continue;
+				}
+				if(count == values.length) {
+					values = Arrays.copyOf(values, count * 2);
+				}
+				values[count++] = Long.parseLong(line);
+			}
+			return Arrays.copyOf(values, count);
+		}
+		catch(IOException | NumberFormatException e) {
+			System.out.println("Could not load the values from: " + inputFile);
+			e.printStackTrace();
+			return null;
+		}
+	} // End of readValues
+
+	/**
+	 * @param outputFile The path of the file to be written
+	 * @param values The values that were tested
+	 * @param results The primality of each value
+	 */
+	public static void writeResults(String outputFile, long[] values, boolean[] results) {
+		try(BufferedWriter writer = new BufferedWriter(new FileWriter(outputFile))) {
+			for(int i = 0; i < values.length; i++) {
+				writer.write(values[i] + " " + results[i]);
+				writer.newLine();
+			}
+			System.out.println("The results were written to: " + outputFile);
+		}
+		catch(IOException e) {
+			System.out.println("Could not write the results to the specified file");
+			e.printStackTrace();
+		}
+	} // End of writeResults
+
+} // End of BatchPrimalityDriver
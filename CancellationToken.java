@@ -0,0 +1,21 @@
+/**
+ * @author Josh Morgan
+ * A Cancellation Token is shared between a caller and a running sieve.
+ * The workers of the sieve check it between segments, so a cancelled sieve stops within one segment
+ * and keeps only the primes of the segments that were completed in order from its lower bound.
+ */
+public class CancellationToken {
+	private volatile boolean cancelled;
+	
+	/**
+	 * Asks every sieve holding this token to stop after its current segments.
+	 */
+	public void cancel() {
+		this.cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return this.cancelled;
+	}
+	
+} // End of CancellationToken
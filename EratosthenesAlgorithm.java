@@ -0,0 +1,18 @@
+/**
+ * @author Josh Morgan
+ * The segmented Sieve of Eratosthenes, see PrimeEngine for the optimizations.
+ * Its cost is close to linear in the size of the range, plus one division per prime factor,
+ * which makes it the better choice for narrow ranges at high offsets.
+ */
+public class EratosthenesAlgorithm implements SieveAlgorithm{
+	
+	public long[] primesBetween(long lowerBound, long upperBound, long[] primeFactors, int segmentSize) {
+		// One byte per odd number
+		return PrimeEngine.primesBetween(lowerBound, upperBound, primeFactors, segmentSize);
+	}
+	
+	public String getName() {
+		return "eratosthenes";
+	}
+	
+} // End of EratosthenesAlgorithm
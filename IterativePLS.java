@@ -3,40 +3,102 @@ import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * @author Josh Morgan
  * An Iterative Parallel Long Sieve (IterativePLS) will create a Parallel Long Sieve for each
  * of the deltas and execute them in order of lowest to highest ranges.
+ * With a pipeline depth above 1, the next iterations are sieved while the earlier ones are written.
+ * The prime factors for the whole run are generated once, in parallel, and shared by every iteration.
  */
 public class IterativePLS extends ParallelLongSieve{
 	private long delta;
 	private long iterations;
+	private int parallelism;
+	private CancellationToken cancellation;
+	private SieveProgress.Listener progressListener;
+	// The iterations finished in order from the first, so the output has no hole below them
+	private int completedIterations;
+	// The iteration that was cancelled partway, -1 if none was, and the later ones that finished anyway
+	private long partialIteration = -1;
+	private int finishedAfterPartial;
+	// The number of iterations sieved or written at the same time
+	private int pipelineDepth = 1;
+	// The latest progress of each iteration in flight, and the totals of the finished ones
+	private HashMap<Long, SieveProgress> iterationProgress = new HashMap<Long, SieveProgress>();
+	private int segmentsFinished;
+	private long numbersFinished;
+	private long primesFinished;
+	// The prime factors up to the square root of the last upper bound, shared read only by every iteration
+	private long[] sharedFactors;
 	
 	IterativePLS(long delta, long iterations, String outputFolder){
-		super(0, delta * iterations, null, outputFolder);
-		this.delta = delta;
-		this.iterations = iterations;
-		if(verifyOutputFolder(outputFolder)) {
-			// Start the sieving
-			iterate();
-		}
-		else {
-			// Error
-			System.out.println("Could not create or verify the output folder");
-		}
+		// -1 keeps every available core, 0 would be ParallelLongSieve.ADAPTIVE
+		this(0, delta, iterations, outputFolder, -1);
 	} // End of constructor
 	
 	IterativePLS(long lowerBound, long delta, long iterations, String outputFolder){
+		this(lowerBound, delta, iterations, outputFolder, -1);
+	} // End of constructor
+	
+	/**
+	 * @param parallelism The number of threads for each iteration, ParallelLongSieve.ADAPTIVE,
+	 * or -1 to use every available core
+	 */
+	IterativePLS(long lowerBound, long delta, long iterations, String outputFolder, int parallelism){
+		this(lowerBound, delta, iterations, outputFolder, parallelism, null, null);
+	} // End of constructor
+	
+	/**
+	 * @param parallelism The number of threads for each iteration, ParallelLongSieve.ADAPTIVE,
+	 * or -1 to use every available core
+	 * @param cancellation A token another thread can cancel to stop the run within one segment, or null
+	 * @param progressListener Receives the progress over every iteration after each segment, or null
+	 */
+	IterativePLS(long lowerBound, long delta, long iterations, String outputFolder, int parallelism,
+			CancellationToken cancellation, SieveProgress.Listener progressListener){
+		this(lowerBound, delta, iterations, outputFolder, parallelism, 1, cancellation, progressListener);
+	} // End of constructor
+	
+	/**
+	 * @param parallelism The number of threads for each iteration, ParallelLongSieve.ADAPTIVE,
+	 * or -1 to use every available core
+	 * @param pipelineDepth The number of iterations in flight at once, 1 to run them one after the other.
+	 * The threads are shared between the iterations in flight, so a later one is sieved while an earlier one
+	 * is written, at the cost of keeping the primes of each of them in memory. It is 1 with adaptive parallelism,
+	 * whose parked workers would hold the shared threads.
+	 * @param cancellation A token another thread can cancel to stop the run within one segment, or null
+	 * @param progressListener Receives the progress over every iteration after each segment, or null
+	 */
+	IterativePLS(long lowerBound, long delta, long iterations, String outputFolder, int parallelism,
+			int pipelineDepth, CancellationToken cancellation, SieveProgress.Listener progressListener){
 		super(lowerBound, delta * iterations, null, outputFolder);
 		this.delta = delta;
 		this.iterations = iterations;
+		this.parallelism = parallelism;
+		this.pipelineDepth = Math.max(1, pipelineDepth);
+		if(this.parallelism == ParallelLongSieve.ADAPTIVE && this.pipelineDepth > 1) {
+			// A parked adaptive worker waits on a shared thread, so the next iteration's segments would queue
+			// behind it and nothing would overlap
+			System.out.println("Adaptive threads can't be pipelined, the iterations will run one at a time.");
+			this.pipelineDepth = 1;
+		}
+		this.cancellation = cancellation;
+		this.progressListener = progressListener;
 		if(verifyOutputFolder(outputFolder)) {
 			// Start the sieving
 			iterate();
 		}
 		else {
 			// Error
+			System.out.println("Could not create or verify the output folder");
 		}
 	} // End of constructor
 	
@@ -64,17 +126,148 @@ public class IterativePLS extends ParallelLongSieve{
 		
 	} // End of verifyOutputFolder
 	
+	/**
+	 * Runs the iterations in order, with up to pipelineDepth of them in flight at once. The iterations in flight
+	 * share one executor for their segments, so the next iteration is sieved while the previous one is written.
+	 * Each iteration is reported in order once it and every iteration before it has finished.
+	 */
 	private void iterate() {
-		long lowerBound = super.getLowerBound();
-		long upperBound = super.getLowerBound() + this.delta;
-		for(int i = 0; i < this.iterations; i++) {
-			ParallelLongSieve pls = new ParallelLongSieve(lowerBound, upperBound, null, super.getOutputFolder());
-			pls.parallelSieve();
-			pls.printInfo();
-			lowerBound += this.delta;
-			upperBound += this.delta;
+		long start = System.currentTimeMillis();
+		int threads = this.parallelism > 0 ? this.parallelism : ParallelLongSieve.getAvailableCores();
+		long lastUpperBound = super.getLowerBound() + this.iterations * this.delta;
+		this.sharedFactors = PrimeEngine.primeFactors((long) Math.sqrt(lastUpperBound) + 1, threads);
+		ExecutorService EXEC = null;
+		ExecutorService ITERATIONS = null;
+		if(this.pipelineDepth > 1) {
+			EXEC = Executors.newFixedThreadPool(threads);
+			ITERATIONS = Executors.newFixedThreadPool(this.pipelineDepth);
+		}
+		ArrayDeque<Future<ParallelLongSieve>> inFlight = new ArrayDeque<Future<ParallelLongSieve>>();
+		long next = 0;
+		// Set once an iteration is cancelled, the ones already in flight are still finished and reported
+		boolean stopped = false;
+		try {
+			while(! inFlight.isEmpty() || (next < this.iterations && ! stopped)) {
+				while(next < this.iterations && inFlight.size() < this.pipelineDepth && ! stopped
+						&& (this.cancellation == null || ! this.cancellation.isCancelled())) {
+					ParallelLongSieve pls = createIteration(next, start);
+					if(ITERATIONS == null) {
+						pls.parallelSieve();
+						inFlight.add(CompletableFuture.completedFuture(pls));
+					}
+					else {
+						final ExecutorService sieveExecutor = EXEC;
+						inFlight.add(ITERATIONS.submit(() -> {
+							pls.parallelSieve(sieveExecutor);
+							return pls;
+						}));
+					}
+					next++;
+				}
+				if(inFlight.isEmpty()) {
+					break;
+				}
+				ParallelLongSieve pls = inFlight.poll().get();
+				pls.printInfo();
+				finishProgress(pls);
+				if(pls.isPartial()) {
+					if(! stopped) {
+						// The first partial iteration is where the hole in the output starts
+						this.partialIteration = (pls.getLowerBound() - super.getLowerBound()) / this.delta;
+					}
+					stopped = true;
+				}
+				else if(stopped) {
+					// Finished, but above the hole left by the partial iteration
+					this.finishedAfterPartial++;
+				}
+				else {
+					this.completedIterations++;
+				}
+			}
+		}
+		catch(InterruptedException | ExecutionException e) {
+			e.printStackTrace();
+		}
+		finally {
+			if(ITERATIONS != null) {
+				ITERATIONS.shutdown();
+				EXEC.shutdown();
+			}
+		}
+		System.out.println(this.completedIterations + "/" + this.iterations + " iteration(s) completed.");
+		if(this.partialIteration >= 0) {
+			System.out.println("Iteration " + (this.partialIteration + 1) + " was cancelled partway, "
+					+ this.finishedAfterPartial + " later iteration(s) in flight finished after it.");
 		}
 	} // End of iterate
 	
+	/**
+	 * @param iteration The index of the iteration
+	 * @param start The time the run started, for the progress
+	 * @return The sieve for the iteration, ready to run
+	 */
+	private ParallelLongSieve createIteration(long iteration, long start) {
+		long lowerBound = super.getLowerBound() + iteration * this.delta;
+		ParallelLongSieve pls = new ParallelLongSieve(lowerBound, lowerBound + this.delta, null, super.getOutputFolder());
+		if(this.parallelism >= 0) {
+			pls.setParallelism(this.parallelism);
+		}
+		pls.setPrimeFactorArray(this.sharedFactors);
+		pls.setCancellationToken(this.cancellation);
+		if(this.progressListener != null) {
+			pls.setProgressListener(progress -> reportProgress(iteration, progress, start));
+		}
+		return pls;
+	} // End of createIteration
+	
+	/**
+	 * Combines the progress of an iteration with the iterations before it and the others in flight.
+	 */
+	private synchronized void reportProgress(long iteration, SieveProgress progress, long start) {
+		this.iterationProgress.put(iteration, progress);
+		int segments = this.segmentsFinished;
+		long numbers = this.numbersFinished;
+		long primes = this.primesFinished;
+		for(SieveProgress current : this.iterationProgress.values()) {
+			segments += current.getSegmentsDone();
+			numbers += current.getNumbersCovered();
+			primes += current.getPrimesFound();
+		}
+		this.progressListener.onProgress(new SieveProgress(segments, progress.getTotalSegments() * (int) this.iterations,
+				numbers, this.delta * this.iterations, primes, System.currentTimeMillis() - start));
+	} // End of reportProgress
+	
+	/**
+	 * Moves the progress of a finished iteration into the totals.
+	 */
+	private synchronized void finishProgress(ParallelLongSieve pls) {
+		this.iterationProgress.remove((pls.getLowerBound() - super.getLowerBound()) / this.delta);
+		if(pls.getScheduler() != null) {
+			SieveProgress progress = pls.getScheduler().getProgress();
+			this.segmentsFinished += progress.getSegmentsDone();
+			this.numbersFinished += progress.getNumbersCovered();
+			this.primesFinished += progress.getPrimesFound();
+		}
+	} // End of finishProgress
+	
+	/**
+	 * @return The iterations finished in order from the first, not counting any that finished after a partial one
+	 */
+	public int getCompletedIterations() {
+		return this.completedIterations;
+	}
+	
+	/**
+	 * @return The index of the iteration that was cancelled partway, or -1 if none was
+	 */
+	public long getPartialIteration() {
+		return this.partialIteration;
+	}
+	
+	public int getPipelineDepth() {
+		return this.pipelineDepth;
+	}
+	
 	
 } // End of IterativePLS
\ No newline at end of file
@@ -1,12 +1,67 @@
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
 
 public class IterativePLSDriver {
 
+	/**
+	 * @param args
+	 * delta iterations outputFolder, or lowerBound delta iterations outputFolder,
+	 * optionally followed by "-threads N" or "-threads auto", "-progress seconds" to print the progress,
+	 * and "-pipeline N" to keep N iterations in flight so writing one overlaps sieving the next, which isn't
+	 * combined with "-threads auto".
+	 * Stopping the JVM (for example with Ctrl-C) cancels the run, the current iteration keeps a partial file.
+	 */
 	public static void main(String[] args) {
-		IterativePLS ps = processArgs(args);
+		int threads = ParallelLongSieveDriver.processThreads(args);
+		long progressInterval = ParallelLongSieveDriver.processProgress(args);
+		int pipelineDepth = processPipeline(args);
+		SieveProgress.Listener listener = null;
+		if(progressInterval > 0) {
+			listener = ParallelLongSieveDriver.progressPrinter(progressInterval);
+		}
+		CancellationToken cancellation = new CancellationToken();
+		CountDownLatch finished = new CountDownLatch(1);
+		ParallelLongSieveDriver.cancelOnShutdown(cancellation, finished);
+		try {
+			processArgs(ParallelLongSieveDriver.removeOptions(args), threads, pipelineDepth, cancellation, listener);
+		}
+		finally {
+			finished.countDown();
+		}
 	}
 	
 	public static IterativePLS processArgs(String[] args) {
+		return processArgs(args, -1, 1, null, null);
+	} // End of processArgs
+	
+	/**
+	 * @param args The command line arguments
+	 * @return The number of iterations in flight given with "-pipeline", or 1 if it wasn't given
+	 */
+	public static int processPipeline(String[] args) {
+		String depth = ParallelLongSieveDriver.getOption(args, "-pipeline");
+		if(depth == null) {
+			return 1;
+		}
+		try {
+			return Math.max(1, Integer.parseInt(depth));
+		}
+		catch(NumberFormatException e) {
+			System.out.println("Could not read the pipeline depth, running the iterations one at a time");
+			return 1;
+		}
+	} // End of processPipeline
+	
+	/**
+	 * @param args The command line arguments without any options
+	 * @param threads The number of threads for each iteration, ParallelLongSieve.ADAPTIVE, or -1 for the default
+	 * @param pipelineDepth The number of iterations in flight at once
+	 * @param cancellation A token to stop the run, or null
+	 * @param listener Receives the progress of the run, or null
+	 * @return An IterativePLS with the corresponding parameters, which has already run
+	 */
+	public static IterativePLS processArgs(String[] args, int threads, int pipelineDepth,
+			CancellationToken cancellation, SieveProgress.Listener listener) {
 		long delta;
 		long iterations;
 		String outputFolder;
@@ -17,12 +72,14 @@ public class IterativePLSDriver {
 				case 3 : delta = Long.parseLong(args[0]);
 					iterations = Long.parseLong(args[1]);
 					outputFolder = args[2];
-					return new IterativePLS(delta, iterations, outputFolder);
+					return new IterativePLS(0, delta, iterations, outputFolder, threads, pipelineDepth, cancellation,
+							listener);
 				case 4 : lowerBound = Long.parseLong(args[0]);
 					delta = Long.parseLong(args[1]);
 					iterations = Long.parseLong(args[2]);
 					outputFolder = args[3];
-					return new IterativePLS(lowerBound, delta, iterations, outputFolder);
+					return new IterativePLS(lowerBound, delta, iterations, outputFolder, threads, pipelineDepth,
+							cancellation, listener);
 				default : throw new NumberFormatException();
 			}
 		}
@@ -32,7 +89,7 @@ public class IterativePLSDriver {
 			System.out.println("Or: ");
 			System.out.println("lowerBound delta iterations outputFolder");
 			String[] args2 = new Scanner(System.in).nextLine().split(" ");
-			return processArgs(args2);
+			return processArgs(args2, threads, pipelineDepth, cancellation, listener);
 		}
 	} // End of processArgs
 	
@@ -0,0 +1,64 @@
+#!/bin/sh
+# Starts a SieveCoordinator and several SieveWorkers on localhost, then checks the total in the manifest against
+# a single LongSieve of the same range.
+# Usage: ./LocalCluster.sh [lowerBound upperBound leaseSize workers port]
+# Exits with 0 if the count and checksum match, 1 otherwise.
+
+LOWER=${1:-0}
+UPPER=${2:-20000000}
+LEASE=${3:-1000000}
+WORKERS=${4:-3}
+PORT=${5:-47317}
+SOURCE=$(cd "$(dirname "$0")" && pwd)
+WORK=$(mktemp -d)
+
+javac -d "$WORK/classes" "$SOURCE"/*.java || exit 1
+# The SmallPrimes table is loaded from the class path
+cp "$SOURCE/SmallPrimes.bin" "$WORK/classes"
+
+java -cp "$WORK/classes" SieveCoordinatorDriver "$PORT" "$LOWER" "$UPPER" "$LEASE" 10000 "$WORK" \
+	> "$WORK/coordinator.log" 2>&1 &
+COORDINATOR=$!
+# Wait for the coordinator to listen before starting the workers
+while ! grep -q "Coordinating" "$WORK/coordinator.log"; do
+	if ! kill -0 "$COORDINATOR" 2> /dev/null; then
+		cat "$WORK/coordinator.log"
+		exit 1
+	fi
+	sleep 0.2
+done
+
+i=1
+while [ "$i" -le "$WORKERS" ]; do
+	java -cp "$WORK/classes" SieveWorkerDriver localhost "$PORT" > "$WORK/worker$i.log" 2>&1 &
+	i=$((i + 1))
+done
+wait "$COORDINATOR"
+wait
+
+cat "$WORK/coordinator.log"
+ACTUAL=$(grep "^total" "$WORK"/Manifest*.txt | cut -d " " -f 4,5)
+
+cat > "$WORK/Reference.java" <<END
+public class Reference {
+	public static void main(String[] args) {
+		long checksum = 0;
+		java.util.ArrayList<Long> primes = new LongSieve(${LOWER}L, ${UPPER}L, null).call();
+		for(long prime : primes) {
+			checksum = SieveCoordinator.addToChecksum(checksum, prime);
+		}
+		System.out.println(primes.size() + " " + checksum);
+	}
+}
+END
+javac -cp "$WORK/classes" -d "$WORK/classes" "$WORK/Reference.java" || exit 1
+EXPECTED=$(java -Xmx2g -cp "$WORK/classes" Reference)
+
+echo "Manifest:  $ACTUAL"
+echo "Reference: $EXPECTED"
+if [ -n "$ACTUAL" ] && [ "$ACTUAL" = "$EXPECTED" ]; then
+	echo "The checksums match, the logs are in $WORK"
+	exit 0
+fi
+echo "The checksums don't match, the logs are in $WORK"
+exit 1
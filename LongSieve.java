@@ -1,9 +1,6 @@
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Scanner;
 import java.util.concurrent.Callable;
 /**
  * @author Josh Morgan
@@ -11,6 +8,8 @@ import java.util.concurrent.Callable;
  * The optimizations for this algorithm are:
  *     Using only the primes less than or equal to the square root of the upper bound to factor numbers.
  *     Searching only the odd numbers up to the upper bound (excluding 2)
+ *     Sieving in cache sized segments with int arithmetic wherever the values fit, see PrimeEngine
+ * The range itself is sieved by a SieveAlgorithm, which is picked automatically unless one is set.
  * Using longs, this can get all the primes below 9,223,372,036,854,775,807.
  */
 public class LongSieve implements Callable<ArrayList<Long>>{
@@ -19,9 +18,18 @@ public class LongSieve implements Callable<ArrayList<Long>>{
 	private long factorLimit;
 	private ArrayList<Long> primes;
 	private ArrayList<Long> primeFactors;
+	private long[] primeFactorArray;
 	private String inputFile;
 	private String outputFile;
 	private long executionTime;
+	private SieveAlgorithm algorithm = SieveAlgorithm.ERATOSTHENES;
+	// The bytes of flags sieved at a time, 0 to use the size picked by the SegmentTuner
+	private int segmentSize;
+	// The threads generating the prime factors, 0 to use every available core
+	private int factorThreads;
+	// Set when only the number of primes is needed, so they are never boxed into the list
+	private boolean countOnly;
+	private long primeCount;
 	
 	/**
 	 * This is the standard sieve that will start from 0 and go to the upper bound (exclusive).
@@ -50,111 +58,53 @@ public class LongSieve implements Callable<ArrayList<Long>>{
 	
 	/**
 	 * This method implements a prime number sieve which uses known primes 
-	 * below the square root of the specified upper bound to factor new potential ones.
+	 * below the square root of the specified upper bound to cross off their multiples,
+	 * using the algorithm of this sieve.
 	 */
 	private void generatePrimes(){
 		this.primes = new ArrayList<Long>();
+		this.primeCount = 0;
 		if(this.upperBound <= 2 || this.lowerBound >= this.upperBound){
 			return;
 		}
-		if(this.lowerBound <= 2){
-			this.primes.add(2L);
-			this.primeFactors = new ArrayList<Long>();
-			this.primeFactors.add(2L);
-			for(long i = 3; i < this.upperBound; i+=2){
-				boolean isPrime = true;
-				// Search through all the primes until one greater than the factor limit has been found
-				for(long prime : this.primeFactors) {
-					if(i % prime == 0 && i != prime) {
-						isPrime = false;
-						break;
-						// Stop the loop at the first complete factor
-					}
-				}
-				if(isPrime){
-					this.primes.add(i);
-					if(i <= this.factorLimit) {
-						this.primeFactors.add(i);
-						// It will be needed to factor future numbers
-					}
-				}
-			}
-		}
-		else{
-			// All primes below the factor limit are needed to factor numbers between lower and upper bound
-			this.primeFactors = getRequiredPrimes();
-			
-			long newLowerBound = this.lowerBound;
-			if(newLowerBound % 2 == 0) {
-				newLowerBound++;
-				// This ensures if an even lower bound was given, the search will start at the next odd number
-			}	
-			for(long i = newLowerBound; i < this.upperBound; i+=2){
-				boolean isPrime = true;
-				for(long prime : this.primeFactors) {
-					if(i % prime == 0 && i != prime) {
-						isPrime = false;
-						break;
-					}
-				}
-				if(isPrime){
-					this.primes.add(i);
-				}
-			}
+		long[] found = this.algorithm.primesBetween(this.lowerBound, this.upperBound, getPrimeFactorArray(),
+				getSegmentSize());
+		this.primeCount = found.length;
+		if(! this.countOnly) {
+			this.primes = PrimeEngine.toList(found);
 		}
 	} // End of generatePrimes
 	
 	/**
 	 * This is a helper method for generatePrimes which gets the primes below the factor limit.
 	 * It will try to load the specified file containing them if given, or it will manually generate them.
-	 * @return An ArrayList of the primes below the factor limit of this sieve
+	 * @return An array of the primes below the factor limit of this sieve
 	 */
-	private ArrayList<Long> getRequiredPrimes(){	
+	private long[] getRequiredPrimes(){	
 		if(this.inputFile != null){
 			// Try to load the previous primes from the provided file
 			try{
-				File primeFile = new File(this.inputFile);
-				Scanner fileScanner = new Scanner(primeFile);
-				ArrayList<Long> previousPrimes = new ArrayList<Long>();
-				
-				while(fileScanner.hasNextLine()){
-					Long previousPrime = Long.parseLong(fileScanner.nextLine());
-					previousPrimes.add(previousPrime);
-					if(previousPrime > this.factorLimit) {
-						// All the primes needed to factor numbers below the upperbound have been added
-						break;
-					}
-				}
-				
-				long lastPrimeInFile = previousPrimes.get(previousPrimes.size() - 1);
-				if(lastPrimeInFile < this.factorLimit) {
-					LongSieve intermediateSieve = new LongSieve(lastPrimeInFile + 2, this.factorLimit + 1, null);
-					intermediateSieve.generatePrimes();
-					// Generate the primes between the last prime in the file and the factor limit
-					for(long i : intermediateSieve.getPrimes()) {
-						previousPrimes.add(i);
-					}
+				long[] previousPrimes = PrimeFileReader.readPrimes(this.inputFile, this.factorLimit);
+				if(previousPrimes.length == 0) {
+					throw new IOException("The file has no primes in it");
 				}
-				return previousPrimes;
+				// Generate the primes between the last prime in the file and the factor limit
+				return PrimeEngine.extend(previousPrimes, this.factorLimit);
 			}
 			catch (IOException e){
-				System.out.println("Could not load file, generating primes below: " + this.lowerBound);
-				LongSieve lowerSieve = new LongSieve(this.factorLimit);
-				lowerSieve.generatePrimes();
-				return lowerSieve.getPrimes();
+				System.out.println("Could not load file, generating primes below: " + this.factorLimit);
+				return PrimeEngine.primeFactors(this.factorLimit, getFactorThreads());
 			}
 		}
 		else if(this.primeFactors != null) {
 			// The prime factors have been provided from setPrimeFactors
-			return this.primeFactors;
+			return PrimeEngine.toArray(this.primeFactors);
 		}
 		else {
 			// No file provided, manually calculate the previous primes
-			LongSieve lowerSieve = new LongSieve(this.factorLimit);
-			lowerSieve.generatePrimes();
-			return lowerSieve.getPrimes();
+			return PrimeEngine.primeFactors(this.factorLimit, getFactorThreads());
 		}
-	} // End of getPreviousPrimes
+	} // End of getRequiredPrimes
 	
 	/**
 	 * This method will write the primes in the sieve.
@@ -163,15 +113,23 @@ public class LongSieve implements Callable<ArrayList<Long>>{
 	 * @return The name of the file written to if correctly written to, null if there was an error
 	 */
 	public String writePrimes() {
+		return writePrimes(null);
+	} // End of writePrimes
+	
+	/**
+	 * This method will write the primes in the sieve to a file in the given folder.
+	 * @param outputFolder The folder to write the file to, or null for the working directory
+	 * @return The name of the file written to if correctly written to, null if there was an error
+	 */
+	public String writePrimes(String outputFolder) {
 		try {
-			String fileName = "Primes [" + this.lowerBound + "," + this.upperBound + ").txt";
-			File outputFile = new File(fileName);
-			BufferedWriter outputWriter = new BufferedWriter(new FileWriter(outputFile));
-			for(long i : this.primes) {
-				outputWriter.write(String.valueOf(i));
-				outputWriter.newLine();
+			String fileName = getFileName();
+			File outputFile = outputFolder == null ? new File(fileName) : new File(outputFolder, fileName);
+			try(PrimeFileWriter outputWriter = new PrimeFileWriter(outputFile.getPath())) {
+				for(long i : this.primes) {
+					outputWriter.write(i);
+				}
 			}
-			outputWriter.close();
 			this.outputFile = fileName;
 			// Assigns the value only if there were no errors writing
 			return fileName;
@@ -191,14 +149,69 @@ public class LongSieve implements Callable<ArrayList<Long>>{
 				+ this.upperBound + " (exclusive).");
 		System.out.println("It has done this by using the primes below " + this.factorLimit 
 				+ " to factor numbers in that range.");
+		System.out.println("It used the " + describeAlgorithm() + " algorithm with segments of "
+				+ describeSegmentSize() + ".");
+		printCalibration();
 		System.out.println("It did this in: " + this.executionTime + " milliseconds.");
-		System.out.println("There are " + this.primes.size() + " primes between " 
+		System.out.println("There are " + this.primeCount + " primes between " 
 				+ this.lowerBound + " (inclusive) and " + this.upperBound + " (exclusive)");
 		if(this.outputFile != null) {
 			System.out.println("The primes were written to: " + this.outputFile);
 		}
 	} // End of printInfo
 	
+	/**
+	 * Prints how long the automatic algorithm spent timing both algorithms, if this sieve's algorithm is automatic
+	 * and it has calibrated.
+	 */
+	protected void printCalibration() {
+		if(this.algorithm instanceof AutoSieveAlgorithm) {
+			long calibrationTime = ((AutoSieveAlgorithm) this.algorithm).getCalibrationTime();
+			if(calibrationTime >= 0) {
+				System.out.println("The automatic choice was calibrated in " + calibrationTime
+						+ " milliseconds, once for this JVM.");
+			}
+		}
+	} // End of printCalibration
+	
+	/**
+	 * @return The name of the algorithm, along with the one picked for this range when it was picked automatically
+	 */
+	protected String describeAlgorithm() {
+		if(this.algorithm instanceof AutoSieveAlgorithm && this.upperBound > this.lowerBound) {
+			return this.algorithm.getName() + " ("
+					+ ((AutoSieveAlgorithm) this.algorithm).choose(this.lowerBound, this.upperBound).getName() + ")";
+		}
+		return this.algorithm.getName();
+	} // End of describeAlgorithm
+	
+	/**
+	 * @return The segment size in KB and how it was picked
+	 */
+	protected String describeSegmentSize() {
+		return (getSegmentSize() >> 10) + " KB, "
+				+ (this.segmentSize > 0 ? "as it was set" : "from " + SegmentTuner.getSource());
+	} // End of describeSegmentSize
+	
+	/**
+	 * @return The name of the file the primes are written to, of the form "Primes [lowerBound,upperBound).txt",
+	 * or "Primes 1 mod 4 [lowerBound,upperBound).txt" for the primes of a progression
+	 */
+	protected String getFileName() {
+		return describePrimes() + " [" + this.lowerBound + "," + this.upperBound + ").txt";
+	}
+	
+	/**
+	 * @return "Primes", followed by the progression if only the primes of one are sieved
+	 */
+	protected String describePrimes() {
+		if(this.algorithm instanceof ProgressionAlgorithm) {
+			ProgressionAlgorithm progression = (ProgressionAlgorithm) this.algorithm;
+			return "Primes " + progression.getResidue() + " mod " + progression.getModulus();
+		}
+		return "Primes";
+	} // End of describePrimes
+	
 	public long getLowerBound() {
 		return this.lowerBound;
 	}
@@ -223,21 +236,85 @@ public class LongSieve implements Callable<ArrayList<Long>>{
 		return this.outputFile;
 	}
 	
+	/**
+	 * @param primes The primes of the sieve, or null to let them go while keeping their count
+	 */
 	public void setPrimes(ArrayList<Long> primes) {
 		this.primes = primes;
+		if(primes != null) {
+			this.primeCount = primes.size();
+		}
+	}
+	
+	/**
+	 * @return The number of primes found, even if they were only counted or have been let go
+	 */
+	public long getPrimeCount() {
+		return this.primeCount;
+	}
+	
+	public boolean isCountOnly() {
+		return this.countOnly;
+	}
+	
+	/**
+	 * @param countOnly True to only count the primes, leaving the list of primes empty
+	 */
+	public void setCountOnly(boolean countOnly) {
+		this.countOnly = countOnly;
 	}
 	
 	public void setOutputFile(String outputFile) {
 		this.outputFile = outputFile;
 	}
 	
+	/**
+	 * @return The bytes of flags sieved at a time by each thread
+	 */
+	public int getSegmentSize() {
+		return this.segmentSize > 0 ? this.segmentSize : SegmentTuner.getSegmentSize();
+	}
+	
+	/**
+	 * @return The number of threads generating the prime factors, which only sieve in parallel for large limits
+	 */
+	public int getFactorThreads() {
+		return this.factorThreads > 0 ? this.factorThreads : ParallelLongSieve.getAvailableCores();
+	}
+	
+	/**
+	 * @param factorThreads The number of threads generating the prime factors, or 0 to use every available core
+	 */
+	public void setFactorThreads(int factorThreads) {
+		this.factorThreads = Math.max(0, factorThreads);
+	}
+	
+	/**
+	 * @param segmentSize The bytes of flags sieved at a time by each thread, or 0 to pick it from the cache sizes
+	 */
+	public void setSegmentSize(int segmentSize) {
+		this.segmentSize = Math.max(0, segmentSize);
+	}
+	
+	public SieveAlgorithm getAlgorithm() {
+		return this.algorithm;
+	}
+	
+	/**
+	 * @param algorithm The algorithm that sieves the range, SieveAlgorithm.ERATOSTHENES by default. SieveAlgorithm.AUTO
+	 * times both algorithms the first time it sees a large range, which is reported by printInfo
+	 */
+	public void setAlgorithm(SieveAlgorithm algorithm) {
+		this.algorithm = algorithm;
+	}
+	
 	/**
 	 * @return The prime numbers below the factorLimit used to find primes below the upperLimit
 	 * Checks for null in the case where the sieve is being used in an iterated or parallel setup
 	 */
 	public ArrayList<Long> getPrimeFactors(){
 		if(this.primeFactors == null) {
-			this.primeFactors = getRequiredPrimes();
+			this.primeFactors = PrimeEngine.toList(getPrimeFactorArray());
 		}
 		return this.primeFactors;
 	}
@@ -247,6 +324,25 @@ public class LongSieve implements Callable<ArrayList<Long>>{
 	 */
 	public void setPrimeFactors(ArrayList<Long> primeFactors) {
 		this.primeFactors = primeFactors;
+		this.primeFactorArray = null;
+	}
+	
+	/**
+	 * @return The prime factors as a primitive array, which is what PrimeEngine sieves with
+	 */
+	long[] getPrimeFactorArray() {
+		if(this.primeFactorArray == null) {
+			this.primeFactorArray = getRequiredPrimes();
+		}
+		return this.primeFactorArray;
+	}
+	
+	/**
+	 * @param primeFactorArray The prime factors, shared read only between the partial sieves of a ParallelLongSieve
+	 */
+	void setPrimeFactorArray(long[] primeFactorArray) {
+		this.primeFactorArray = primeFactorArray;
+		this.primeFactors = null;
 	}
 	
 	/**
@@ -0,0 +1,256 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * @author Josh Morgan
+ * A Multi Window Sieve finds the primes in many windows at once, such as a small window around each of a list of
+ * targets spread over a large range.
+ * The optimizations for this algorithm are:
+ *     Merging the windows that overlap or touch, so no number is sieved twice.
+ *     Sharing a single array of prime factors, sized for the highest window, between every window.
+ *     Splitting large merged windows into chunks and sieving the chunks on every core with a SegmentScheduler.
+ * The results are the primes of each original window, in the order the windows were given, so a window that was
+ * given twice has its primes twice.
+ */
+public class MultiWindowSieve implements Callable<ArrayList<ArrayList<Long>>>{
+	// The largest chunk of a merged window sieved by one thread at a time
+	private static final long MAXIMUM_CHUNK = 1 << 24;
+
+	private List<Window> windows;
+	private ArrayList<Window> merged;
+	private long[] primeFactors;
+	private SieveAlgorithm algorithm = SieveAlgorithm.ERATOSTHENES;
+	private int numberOfCores;
+	private int chunks;
+	// The primes of each original window, aligned with the windows
+	private ArrayList<ArrayList<Long>> results;
+	private long executionTime;
+
+	/**
+	 * A range of numbers from the lower bound (inclusive) to the upper bound (exclusive).
+	 */
+	public static class Window implements Comparable<Window>{
+		private long lowerBound;
+		private long upperBound;
+
+		Window(long lowerBound, long upperBound){
+			this.lowerBound = Math.max(0, lowerBound);
+			this.upperBound = Math.max(this.lowerBound, upperBound);
+		} // End of Constructor
+
+		public long getLowerBound() {
+			return this.lowerBound;
+		}
+
+		public long getUpperBound() {
+			return this.upperBound;
+		}
+
+		public int compareTo(Window other) {
+			return Long.compare(this.lowerBound, other.lowerBound);
+		}
+
+		public boolean equals(Object other) {
+			return other instanceof Window && ((Window) other).lowerBound == this.lowerBound
+					&& ((Window) other).upperBound == this.upperBound;
+		}
+
+		public int hashCode() {
+			return Long.hashCode(this.lowerBound) * 31 + Long.hashCode(this.upperBound);
+		}
+
+		public String toString() {
+			return "[" + this.lowerBound + "," + this.upperBound + ")";
+		}
+	} // End of Window
+
+	/**
+	 * @param windows The windows to be sieved, in any order and possibly overlapping
+	 */
+	MultiWindowSieve(List<Window> windows){
+		this.windows = windows;
+		this.numberOfCores = ParallelLongSieve.getAvailableCores();
+	} // End of Constructor
+
+	/**
+	 * @param targets The lower bounds of the windows
+	 * @param width The width of each window
+	 * @return A window of the width starting at each target, such as [x, x + 10^6), cut short at Long.MAX_VALUE
+	 */
+	public static ArrayList<Window> around(long[] targets, long width) {
+		ArrayList<Window> windows = new ArrayList<Window>();
+		for(long target : targets) {
+			// Clamped by distance, target + width can overflow near Long.MAX_VALUE
+			windows.add(new Window(target, Long.MAX_VALUE - target > width ? target + width : Long.MAX_VALUE));
+		}
+		return windows;
+	} // End of around
+
+	/**
+	 * Merges the windows, sieves every chunk of the merged windows in parallel,
+	 * then copies the primes of each original window out of its merged window.
+	 */
+	private void sieveWindows() throws Exception {
+		this.results = new ArrayList<ArrayList<Long>>();
+		mergeWindows();
+		if(this.merged.isEmpty()) {
+			for(int i = 0; i < this.windows.size(); i++) {
+				this.results.add(new ArrayList<Long>());
+			}
+			return;
+		}
+		long highest = this.merged.get(this.merged.size() - 1).upperBound;
+		this.primeFactors = PrimeEngine.primeFactors((long) Math.sqrt(highest) + 1, this.numberOfCores);
+
+		ArrayList<LongSieve> sieves = new ArrayList<LongSieve>();
+		// The index of the first chunk of each merged window, and one past the last chunk at the end
+		int[] firstChunk = new int[this.merged.size() + 1];
+		for(int i = 0; i < this.merged.size(); i++) {
+			firstChunk[i] = sieves.size();
+			Window window = this.merged.get(i);
+			long lowerBound = window.lowerBound;
+			while(lowerBound < window.upperBound) {
+				// Clamped by distance, lowerBound + MAXIMUM_CHUNK can overflow near Long.MAX_VALUE
+				long upperBound = window.upperBound - lowerBound > MAXIMUM_CHUNK ? lowerBound + MAXIMUM_CHUNK
+						: window.upperBound;
+				LongSieve chunk = new LongSieve(lowerBound, upperBound, null);
+				chunk.setPrimeFactorArray(this.primeFactors);
+				chunk.setAlgorithm(this.algorithm);
+				sieves.add(chunk);
+				lowerBound = upperBound;
+			}
+		}
+		firstChunk[this.merged.size()] = sieves.size();
+		this.chunks = sieves.size();
+
+		ExecutorService EXEC = Executors.newFixedThreadPool(this.numberOfCores);
+		SpillingPartials partials;
+		try {
+			partials = new SegmentScheduler(this.numberOfCores, false).run(sieves, EXEC);
+		}
+		finally {
+			EXEC.shutdown();
+		}
+
+		ArrayList<ArrayList<Long>> mergedPrimes = new ArrayList<ArrayList<Long>>();
+		for(int i = 0; i < this.merged.size(); i++) {
+			ArrayList<Long> primes = new ArrayList<Long>();
+			for(int j = firstChunk[i]; j < firstChunk[i + 1]; j++) {
+				primes.addAll(partials.get(j));
+				partials.release(j);
+			}
+			mergedPrimes.add(primes);
+		}
+		for(Window window : this.windows) {
+			this.results.add(primesIn(window, mergedPrimes));
+		}
+	} // End of sieveWindows
+
+	/**
+	 * Sorts the windows and merges the ones that overlap or touch.
+	 */
+	private void mergeWindows() {
+		ArrayList<Window> sorted = new ArrayList<Window>();
+		for(Window window : this.windows) {
+			if(window.lowerBound < window.upperBound) {
+				sorted.add(window);
+			}
+		}
+		Collections.sort(sorted);
+		this.merged = new ArrayList<Window>();
+		Window current = null;
+		for(Window window : sorted) {
+			if(current != null && window.lowerBound <= current.upperBound) {
+				current.upperBound = Math.max(current.upperBound, window.upperBound);
+			}
+			else {
+				current = new Window(window.lowerBound, window.upperBound);
+				this.merged.add(current);
+			}
+		}
+	} // End of mergeWindows
+
+	/**
+	 * @param window One of the original windows
+	 * @param mergedPrimes The primes of each merged window
+	 * @return A copy of the primes of the merged window that fall in the original window
+	 */
+	private ArrayList<Long> primesIn(Window window, ArrayList<ArrayList<Long>> mergedPrimes) {
+		if(window.lowerBound >= window.upperBound) {
+			return new ArrayList<Long>();
+		}
+		// The merged window with the greatest lower bound at or below the window's
+		int index = Collections.binarySearch(this.merged, window);
+		if(index < 0) {
+			index = -index - 2;
+		}
+		ArrayList<Long> primes = mergedPrimes.get(index);
+		int from = Collections.binarySearch(primes, window.lowerBound);
+		from = from >= 0 ? from : -from - 1;
+		int to = Collections.binarySearch(primes, window.upperBound);
+		to = to >= 0 ? to : -to - 1;
+		return new ArrayList<Long>(primes.subList(from, to));
+	} // End of primesIn
+
+	/**
+	 * This method prints out relevant information regarding the sieve.
+	 */
+	public void printInfo() {
+		System.out.println("This sieve looked for primes in " + this.windows.size() + " window(s), merged into "
+				+ this.merged.size() + " and sieved as " + this.chunks + " chunk(s) on " + this.numberOfCores + " core(s).");
+		if(this.primeFactors != null) {
+			System.out.println("The windows shared the " + this.primeFactors.length + " primes below "
+					+ (this.primeFactors.length == 0 ? 0 : this.primeFactors[this.primeFactors.length - 1] + 1)
+					+ " as their prime factors.");
+		}
+		System.out.println("It did this in: " + this.executionTime + " milliseconds.");
+	} // End of printInfo
+
+	/**
+	 * @param threads The number of threads to sieve with
+	 */
+	public void setParallelism(int threads) {
+		this.numberOfCores = Math.max(1, threads);
+	}
+
+	public void setAlgorithm(SieveAlgorithm algorithm) {
+		this.algorithm = algorithm;
+	}
+
+	/**
+	 * @return The primes of each original window, in the order the windows were given
+	 */
+	public ArrayList<ArrayList<Long>> getResults() {
+		return this.results;
+	}
+
+	public List<Window> getMergedWindows() {
+		return this.merged;
+	}
+
+	public long getExecutionTime() {
+		return this.executionTime;
+	}
+
+	/**
+	 * @return The primes of each original window, in the order the windows were given, or null if the sieve failed
+	 */
+	public ArrayList<ArrayList<Long>> call() {
+		long start = System.currentTimeMillis();
+		try {
+			sieveWindows();
+		}
+		catch(Exception e) {
+			System.out.println("Could not sieve the windows");
+			e.printStackTrace();
+			return null;
+		}
+		this.executionTime = System.currentTimeMillis() - start;
+		return this.results;
+	} // End of call
+
+} // End of MultiWindowSieve
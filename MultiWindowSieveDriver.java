@@ -0,0 +1,86 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+/**
+ * @author Josh Morgan
+ * This class is a driver to highlight the features of a MultiWindowSieve object.
+ * The windows are read from a file with "lowerBound upperBound" on each line.
+ * The number of primes in each window is printed, and the primes of each window can be written to its own
+ * file of the form "Primes [lowerBound,upperBound).txt".
+ */
+public class MultiWindowSieveDriver {
+
+	/**
+	 * @param args
+	 * The first argument is the file of windows.
+	 * The second argument is the folder the primes will be written to, if it is left out they are only counted.
+	 */
+	public static void main(String[] args) {
+		if(args.length == 0) {
+			System.out.println("Please type the arguments as: ");
+			System.out.println("windowFile optionalOutputFolder");
+			return;
+		}
+		ArrayList<MultiWindowSieve.Window> windows = readWindows(args[0]);
+		if(windows != null) {
+			MultiWindowSieve sieve = new MultiWindowSieve(windows);
+			ArrayList<ArrayList<Long>> results = sieve.call();
+			if(results == null) {
+				return;
+			}
+			for(int i = 0; i < windows.size(); i++) {
+				System.out.println(windows.get(i) + " " + results.get(i).size());
+				if(args.length > 1) {
+					writePrimes(args[1], windows.get(i), results.get(i));
+				}
+			}
+			sieve.printInfo();
+		}
+	} // End of main
+
+	/**
+	 * @param inputFile The path of a file containing "lowerBound upperBound" on each line
+	 * @return The windows in the file, or null if it could not be read
+	 */
+	public static ArrayList<MultiWindowSieve.Window> readWindows(String inputFile) {
+		try(BufferedReader reader = new BufferedReader(new FileReader(inputFile))) {
+			ArrayList<MultiWindowSieve.Window> windows = new ArrayList<MultiWindowSieve.Window>();
+			String line;
+			while((line = reader.readLine()) != null) {
+				line = line.trim();
+				if(line.isEmpty()) {
+					continue;
+				}
+				String[] bounds = line.split("\\s+");
+				windows.add(new MultiWindowSieve.Window(Long.parseLong(bounds[0]), Long.parseLong(bounds[1])));
+			}
+			return windows;
+		}
+		catch(IOException | RuntimeException e) {
+			System.out.println("Could not load the windows from: " + inputFile);
+			e.printStackTrace();
+			return null;
+		}
+	} // End of readWindows
+
+	/**
+	 * @param outputFolder The folder the file is written to
+	 * @param window The window the primes are from
+	 * @param primes The primes of the window
+	 */
+	public static void writePrimes(String outputFolder, MultiWindowSieve.Window window, ArrayList<Long> primes) {
+		File outputFile = new File(outputFolder, "Primes " + window + ".txt");
+		try(PrimeFileWriter writer = new PrimeFileWriter(outputFile.getPath())) {
+			for(long prime : primes) {
+				writer.write(prime);
+			}
+		}
+		catch(IOException e) {
+			System.out.println("Could not write the primes of " + window + " to the specified folder");
+			e.printStackTrace();
+		}
+	} // End of writePrimes
+
+} // End of MultiWindowSieveDriver
@@ -1,26 +1,54 @@
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 
 /**
  * @author Josh Morgan
  * NOTE: The sieves for the partitions in a smaller range of values will be given the full prime factors list for
  * all of the numbers up to the upper bound, which is somewhat inefficient for memory usage
- * In addition, making number of cores - 1 copies of the factor list is also time consuming and memory inefficient
- * Copying approximately (factorLimit / ln(factorLimit)) terms for each prime factor array
+ * The factors are a single primitive array shared read only between the partitions, so it is no longer copied
+ * for each of them
+ * The factors are generated when the sieve runs rather than when it is created, using the sieve's threads,
+ * so the primes up to the square root of a large upper bound are no longer a serial step before the parallel work
  * 
  */
 public class ParallelLongSieve extends LongSieve{
+	// Passed to setParallelism to size the number of threads to the measured throughput
+	public static final int ADAPTIVE = 0;
+	// The number of segments per thread in adaptive mode, enough to measure and adjust between them
+	private static final int SEGMENTS_PER_THREAD = 16;
+	// The smallest segment in adaptive mode
+	private static final long MINIMUM_SEGMENT = 1 << 15;
+	// The largest segment when the sieve reports progress or can be cancelled, so neither waits long on a segment
+	private static final long MAXIMUM_SEGMENT = 1 << 25;
+	// Bounds the number of sieves for huge ranges, whose segments are then larger than MAXIMUM_SEGMENT
+	private static final long MAXIMUM_PARTITIONS = 1 << 16;
 	private static Runtime system = Runtime.getRuntime();
+	private int availableCores;
 	private int numberOfCores;
-	private ArrayList<Long> primeFactors;
+	private boolean adaptive;
+	private SegmentScheduler scheduler;
+	private CancellationToken cancellation;
+	private SieveProgress.Listener progressListener;
+	private long completedUpperBound;
+	private long[] primeFactors;
 	ArrayList<LongSieve> partialSieves;
+	// The partial sieves whose primes were read from the segment store instead of sieved
+	private HashSet<LongSieve> storedSieves;
+	private SegmentStore segmentStore;
+	private long storedNumbers;
+	// The largest number of bytes the sieve should use, 0 for no limit
+	private long memoryBudget;
+	private int segmentsInFlight;
+	private SpillingPartials results;
+	// The number of primes in the completed segments, whether they were combined or written
+	private long primeCount;
 	private long parallelExecutionTime;
 	private String outputFolder;
 	// Default to true for non-iterative use
@@ -31,7 +59,6 @@ public class ParallelLongSieve extends LongSieve{
 	 */
 	ParallelLongSieve(long upperBound) {
 		super(upperBound);
-		this.primeFactors = super.getPrimeFactors();
 		getSystemInfo();
 	} // End of constructor
 	
@@ -42,7 +69,6 @@ public class ParallelLongSieve extends LongSieve{
 	 */
 	ParallelLongSieve(long lowerBound, long upperBound, String inputFile) {
 		super(lowerBound, upperBound, inputFile);
-		this.primeFactors = super.getPrimeFactors();
 		getSystemInfo();
 	} // End of constructor
 	
@@ -55,39 +81,128 @@ public class ParallelLongSieve extends LongSieve{
 	 */
 	ParallelLongSieve(long lowerBound, long upperBound, String inputFile, String outputFolder) {
 		super(lowerBound, upperBound, inputFile);
-		this.primeFactors = super.getPrimeFactors();
 		getSystemInfo();
 		this.outputFolder = outputFolder;
 	} // End of constructor
 
 	/**
-	 * Gets the number of cores in the system and uses the number of cores - 1 for sieving
+	 * Gets the number of cores available to this JVM and uses all of them for sieving by default
 	 */
 	private void getSystemInfo() {
-		this.numberOfCores = system.availableProcessors() - 2;
-		// Leave one core for the OS
-		if(this.numberOfCores <= 0) {
-			this.numberOfCores = 1;
-		}
+		this.availableCores = getAvailableCores();
+		this.numberOfCores = this.availableCores;
 	} // End of getSystemInfo
 	
 	/**
-	 * This method will create a FixedThreadPool with the number of cores on the machine - 1,
+	 * The JVM already limits the available processors to the CPU set of a container,
+	 * but a CPU quota can still be lower than the number of visible cores.
+	 * @return The number of cores this JVM can use at the same time, at least 1
+	 */
+	public static int getAvailableCores() {
+		int cores = system.availableProcessors();
+		double quota = readCpuQuota();
+		if(quota > 0) {
+			cores = Math.min(cores, (int) Math.ceil(quota));
+		}
+		return Math.max(1, cores);
+	} // End of getAvailableCores
+	
+	/**
+	 * @return The CPU quota of the cgroup in cores, or -1 if there isn't one
+	 */
+	private static double readCpuQuota() {
+		try {
+			Path cgroupV2 = Paths.get("/sys/fs/cgroup/cpu.max");
+			if(Files.exists(cgroupV2)) {
+				// Of the form "quota period", where the quota is "max" for no limit
+				String[] limit = Files.readAllLines(cgroupV2).get(0).trim().split(" ");
+				if(limit[0].equals("max")) {
+					return -1;
+				}
+				return Double.parseDouble(limit[0]) / Double.parseDouble(limit[1]);
+			}
+			Path quota = Paths.get("/sys/fs/cgroup/cpu/cpu.cfs_quota_us");
+			Path period = Paths.get("/sys/fs/cgroup/cpu/cpu.cfs_period_us");
+			if(Files.exists(quota) && Files.exists(period)) {
+				// A quota of -1 means no limit
+				double microseconds = Double.parseDouble(Files.readAllLines(quota).get(0).trim());
+				if(microseconds <= 0) {
+					return -1;
+				}
+				return microseconds / Double.parseDouble(Files.readAllLines(period).get(0).trim());
+			}
+		}
+		catch(IOException | RuntimeException e) {
+			// Treat an unreadable cgroup the same as no quota
+		}
+		return -1;
+	} // End of readCpuQuota
+	
+	/**
+	 * @param threads The number of threads to sieve with, or ADAPTIVE to measure the throughput while sieving
+	 * and only use as many of the available cores as keep improving it
+	 */
+	public void setParallelism(int threads) {
+		if(threads == ADAPTIVE) {
+			this.adaptive = true;
+			this.numberOfCores = this.availableCores;
+		}
+		else {
+			this.adaptive = false;
+			this.numberOfCores = Math.max(1, threads);
+		}
+		setFactorThreads(this.numberOfCores);
+	} // End of setParallelism
+	
+	/**
+	 * This method will create a FixedThreadPool with the configured number of threads,
 	 * partition the sieves, time the total runtime, and combine the partitioned sieves.
+	 * With a segment store, the stored parts of the range are read instead of sieved and the sieved gaps are
+	 * added to the store. With a memory budget, fewer segments may be sieved at once and finished segments are
+	 * spilled to disk once holding them would go over the budget.
 	 */
 	public void parallelSieve() {
 		ExecutorService EXEC = Executors.newFixedThreadPool(this.numberOfCores);
-		partitionSieves();
 		try {
-			ArrayList<ArrayList<Long>> partials = new ArrayList<ArrayList<Long>>();
+			parallelSieve(EXEC);
+		}
+		finally {
+			EXEC.shutdown();
+		}
+	} // End of parallelSieve
+	
+	/**
+	 * Sieves on an executor that may be shared with other sieves, such as the iterations of an IterativePLS.
+	 * The executor is left running. It should have as many threads as this sieve has cores, a smaller one only
+	 * runs fewer of the segments at once.
+	 * @param EXEC The executor the segments are sieved on
+	 */
+	public void parallelSieve(ExecutorService EXEC) {
+		this.results = null;
+		try {
+			partitionSieves();
 			long start = System.currentTimeMillis();
-			List<Future<ArrayList<Long>>> results = EXEC.invokeAll(this.partialSieves);
-			for(Future<ArrayList<Long>> result : results) {
-				partials.add(result.get());
+			long heldBudget = planMemory();
+			this.scheduler = new SegmentScheduler(this.segmentsInFlight, this.adaptive);
+			this.scheduler.setCancellationToken(this.cancellation);
+			this.scheduler.setProgressListener(this.progressListener);
+			this.results = this.scheduler.run(this.partialSieves, EXEC,
+					new SpillingPartials(this.partialSieves.size(), heldBudget));
+			List<ArrayList<Long>> partials = keepCompletedPrefix(this.results);
+			this.primeCount = 0;
+			for(int i = 0; i < partials.size(); i++) {
+				this.primeCount += this.results.getCount(i);
 			}
 			long end = System.currentTimeMillis();
 			this.parallelExecutionTime = end - start;
-			if(this.outputFolder == null) {
+			if(usesStore()) {
+				storeGaps(partials);
+			}
+			if(countsOnly()) {
+				// The segments only counted their primes, so there is nothing to combine
+				super.setPrimes(new ArrayList<Long>());
+			}
+			else if(this.outputFolder == null) {
 				combinePartials(partials);
 			}
 			else {
@@ -103,57 +218,235 @@ public class ParallelLongSieve extends LongSieve{
 			e.printStackTrace();
 		}
 		finally {
-			EXEC.shutdown();
+			if(this.results != null) {
+				this.results.close();
+			}
 		}
 		
 	} // End of parallelSieve
 	
+	/**
+	 * A cancelled run may have finished segments out of order, so only the segments finished in order from the
+	 * lower bound are kept. This makes the output of a cancelled sieve the complete primes of a smaller range.
+	 * @param partials The primes of each segment, not done for the segments that never ran
+	 * @return A view of the primes of the segments before the first one that never ran
+	 */
+	private List<ArrayList<Long>> keepCompletedPrefix(SpillingPartials partials) {
+		int completed = 0;
+		this.completedUpperBound = this.getLowerBound();
+		while(completed < partials.size() && partials.isDone(completed)) {
+			this.completedUpperBound = this.partialSieves.get(completed).getUpperBound();
+			completed++;
+		}
+		if(isPartial()) {
+			System.out.println("The sieve was cancelled, only [" + this.getLowerBound() + "," + this.completedUpperBound
+					+ ") is complete.");
+		}
+		return partials.subList(0, completed);
+	} // End of keepCompletedPrefix
+	
 	/**
 	 * Partitions the numbers from lowerBound to upperBound into a number of smaller sieves equal to 
-	 * the number of cores - 1 on the machine. They will be approximately equal in size but the final sieve 
-	 * may be slightly larger in the case that the range of numbers isn't divisible by the number of cores - 1
+	 * the number of threads, or SEGMENTS_PER_THREAD times that in adaptive mode or when the sieve reports
+	 * progress or can be cancelled, in which case no segment is larger than MAXIMUM_SEGMENT unless that would take
+	 * more than MAXIMUM_PARTITIONS of them. They will be approximately equal in size but the final sieve may be slightly
+	 * larger in the case that the range of numbers isn't divisible by the number of sieves.
+	 * With a segment store, each stored part of the range becomes a single sieve that reads its primes from the
+	 * store, and only the gaps between them are partitioned, in proportion to their size.
+	 * With a memory budget, there are also enough partitions for a few of them to fit in the budget at once.
 	 */
 	private void partitionSieves() {
+		// Generated here rather than in the constructor, so an IterativePLS can share its factors with every iteration
+		this.primeFactors = getPrimeFactorArray();
 		this.partialSieves = new ArrayList<LongSieve>();
-		long sieveSize = (this.getUpperBound() - this.getLowerBound()) / this.numberOfCores;
-		long lowerBound = this.getLowerBound();
-		long upperBound = this.getLowerBound();
+		this.storedSieves = new HashSet<LongSieve>();
+		this.storedNumbers = 0;
+		long range = this.getUpperBound() - this.getLowerBound();
+		long partitions = this.numberOfCores;
+		if(isSegmented()) {
+			partitions = partitions * SEGMENTS_PER_THREAD;
+			if(this.memoryBudget > 0) {
+				// Four partitions per thread have to fit in the budget
+				long primeBytes = PrimeEngine.estimateCount(this.getLowerBound(), this.getUpperBound())
+						* SpillingPartials.BYTES_PER_PRIME;
+				partitions = Math.max(partitions, 4 * this.numberOfCores * (primeBytes / this.memoryBudget + 1));
+			}
+			partitions = Math.max(partitions, Math.min(MAXIMUM_PARTITIONS, (range - 1) / MAXIMUM_SEGMENT + 1));
+			partitions = Math.max(1, Math.min(partitions, range / MINIMUM_SEGMENT));
+		}
+		if(! usesStore()) {
+			partitionGap(this.getLowerBound(), this.getUpperBound(), partitions);
+			return;
+		}
+		for(SegmentStore.Segment part : this.segmentStore.plan(this.getLowerBound(), this.getUpperBound())) {
+			long size = part.getUpperBound() - part.getLowerBound();
+			if(part.isStored()) {
+				StoredSieve stored = new StoredSieve(part, this.segmentStore);
+				stored.setPrimeFactorArray(this.primeFactors);
+				stored.setAlgorithm(this.getAlgorithm());
+				stored.setSegmentSize(this.getSegmentSize());
+				this.partialSieves.add(stored);
+				this.storedSieves.add(stored);
+				this.storedNumbers += size;
+				continue;
+			}
+			partitionGap(part.getLowerBound(), part.getUpperBound(),
+					Math.max(1, (long) Math.ceil((double) partitions * size / range)));
+		}
+		
+	} // End of partitionSieves
+	
+	/**
+	 * Adds the sieves for part of the range to the partial sieves.
+	 * @param gapLowerBound The lower bound of the part (inclusive)
+	 * @param gapUpperBound The upper bound of the part (exclusive)
+	 * @param partitions The number of sieves to split the part into
+	 */
+	private void partitionGap(long gapLowerBound, long gapUpperBound, long partitions) {
+		long sieveSize = (gapUpperBound - gapLowerBound) / partitions;
+		long lowerBound = gapLowerBound;
+		long upperBound = gapLowerBound;
 		// Default them to the whole space, if a double or single core system
-		for(int i = 0; i < this.numberOfCores - 1; i++) {
+		for(int i = 0; i < partitions - 1; i++) {
 			// All the sieves except the last one at the regular size
-			lowerBound = this.getLowerBound() + sieveSize * i;
+			lowerBound = gapLowerBound + sieveSize * i;
 			upperBound = lowerBound + sieveSize;
 			LongSieve partial = new LongSieve(lowerBound, upperBound, null);
-			ArrayList<Long> copiedPrimeFactors = new ArrayList<Long>();
-			// Need copies for thread safe access
-			for(Long factor : this.primeFactors) {
-				copiedPrimeFactors.add(factor);
-				// Dependent on Longs being immutable, which the should be
-			}
-			partial.setPrimeFactors(copiedPrimeFactors);
+			partial.setCountOnly(countsOnly());
+			partial.setPrimeFactorArray(this.primeFactors);
+			partial.setAlgorithm(this.getAlgorithm());
+			partial.setSegmentSize(this.getSegmentSize());
 			this.partialSieves.add(partial);
 		}
 		
-		LongSieve finalSieve = new LongSieve(upperBound, this.getUpperBound(), null);
+		LongSieve finalSieve = new LongSieve(upperBound, gapUpperBound, null);
+		finalSieve.setCountOnly(countsOnly());
 		// Making the last sieve the upperBound of the previous sieve and the real upper bound to deal with remainders
-		ArrayList<Long> copiedPrimeFactors = new ArrayList<Long>();
-		for(Long factor : this.primeFactors) {
-			copiedPrimeFactors.add(factor);
-		}
-		finalSieve.setPrimeFactors(copiedPrimeFactors);
+		finalSieve.setPrimeFactorArray(this.primeFactors);
+		finalSieve.setAlgorithm(this.getAlgorithm());
+		finalSieve.setSegmentSize(this.getSegmentSize());
 		this.partialSieves.add(finalSieve);
 		
-	} // End of partitionSieves
+	} // End of partitionGap
+	
+	/**
+	 * A partial sieve for a part of the range that is in the segment store, which reads its primes from the store
+	 * instead of sieving them unless the store can no longer read them.
+	 */
+	private static class StoredSieve extends LongSieve{
+		private SegmentStore.Segment part;
+		private SegmentStore store;
+		
+		StoredSieve(SegmentStore.Segment part, SegmentStore store){
+			super(part.getLowerBound(), part.getUpperBound(), null);
+			this.part = part;
+			this.store = store;
+		} // End of Constructor
+		
+		public ArrayList<Long> call() {
+			try {
+				ArrayList<Long> primes = this.store.read(this.part);
+				this.setPrimes(primes);
+				return primes;
+			}
+			catch(IOException e) {
+				System.out.println("Could not read [" + this.getLowerBound() + "," + this.getUpperBound()
+						+ ") from the segment store, sieving it instead");
+				return super.call();
+			}
+		} // End of call
+	} // End of StoredSieve
+	
+	/**
+	 * Estimates the memory a run would use with no budget: the prime factors, the primes of every partial,
+	 * the combined list if the primes are kept in memory, and the working memory of each thread.
+	 * @return The estimated number of bytes
+	 */
+	public long estimateFootprint() {
+		long primes = PrimeEngine.estimateCount(this.getLowerBound(), this.getUpperBound());
+		long footprint = 8L * getPrimeFactorArray().length + primes * SpillingPartials.BYTES_PER_PRIME;
+		if(countsOnly()) {
+			// The primes are only counted
+			footprint = 8L * getPrimeFactorArray().length;
+		}
+		else if(this.outputFolder == null) {
+			// The references of the combined list
+			footprint += 8 * primes;
+		}
+		long partitionPrimes = primes / Math.max(1, this.numberOfCores);
+		return footprint + this.numberOfCores * workingMemory(partitionPrimes);
+	} // End of estimateFootprint
+	
+	/**
+	 * @param primes The number of primes in a segment
+	 * @return The memory a thread uses while sieving a segment: the segment flags, a copy of the prime factors
+	 * and where each of them is up to, and the primitive primes before they are boxed
+	 */
+	private long workingMemory(long primes) {
+		return getSegmentSize() + 16L * getPrimeFactorArray().length + 8 * primes;
+	} // End of workingMemory
+	
+	/**
+	 * Sets the number of segments sieved at once so their working memory fits in the budget,
+	 * leaving the rest of the budget for the finished segments.
+	 * @return The number of bytes of finished segments held in memory before they are spilled
+	 */
+	private long planMemory() {
+		this.segmentsInFlight = this.numberOfCores;
+		if(this.memoryBudget <= 0) {
+			return Long.MAX_VALUE;
+		}
+		long available = this.memoryBudget - 8L * this.primeFactors.length;
+		long largest = 0;
+		for(LongSieve partial : this.partialSieves) {
+			largest = Math.max(largest, partial.getUpperBound() - partial.getLowerBound());
+		}
+		long segmentPrimes = PrimeEngine.estimateCount(0, Math.max(1, largest)) + 1;
+		// A segment in flight needs its working memory and room for its boxed primes until it is held or spilled
+		long perSegment = workingMemory(segmentPrimes) + segmentPrimes * SpillingPartials.BYTES_PER_PRIME;
+		this.segmentsInFlight = (int) Math.max(1, Math.min(this.numberOfCores, available / (2 * perSegment)));
+		if(this.outputFolder == null && ! countsOnly() && estimateFootprint() > this.memoryBudget) {
+			System.out.println("The primes are kept in memory, so the sieve will go over its memory budget. "
+					+ "Give it an output folder to stream them to a file instead.");
+		}
+		return Math.max(0, available - this.segmentsInFlight * perSegment);
+	} // End of planMemory
+	
+	/**
+	 * Adds every run of sieved partials between the stored ones to the segment store.
+	 * @param partials The primes of the partials that completed, in order
+	 */
+	private void storeGaps(List<ArrayList<Long>> partials) {
+		int start = 0;
+		for(int i = 0; i <= partials.size(); i++) {
+			if(i < partials.size() && ! this.storedSieves.contains(this.partialSieves.get(i))) {
+				continue;
+			}
+			if(i > start) {
+				this.segmentStore.store(this.partialSieves.get(start).getLowerBound(),
+						this.partialSieves.get(i - 1).getUpperBound(), partials.subList(start, i), this.numberOfCores);
+			}
+			start = i + 1;
+		}
+	} // End of storeGaps
 	
 	/**
 	 * @param partials An ArrayList of the partial lists of primes to be combined
-	 * This method will combine the partial lists and then set the superclass' primes to the combined set
+	 * This method will combine the partial lists and then set the superclass' primes to the combined set.
+	 * Each partial is released once it is copied, so at most one spilled partial is read back at a time.
 	 */
-	private void combinePartials(ArrayList<ArrayList<Long>> partials) {
-		ArrayList<Long> primes = new ArrayList<Long>();
-		for(ArrayList<Long> partial : partials) {
-			for(Long prime : partial) {
-				primes.add(prime);
+	private void combinePartials(List<ArrayList<Long>> partials) {
+		long total = 0;
+		for(int i = 0; i < partials.size(); i++) {
+			total += this.results.getCount(i);
+		}
+		ArrayList<Long> primes = new ArrayList<Long>((int) Math.min(Integer.MAX_VALUE - 8, total));
+		for(int i = 0; i < partials.size(); i++) {
+			primes.addAll(partials.get(i));
+			this.results.release(i);
+			if(this.memoryBudget > 0) {
+				// The partials aren't printed individually with a budget, so their lists can go as well
+				this.partialSieves.get(i).setPrimes(null);
 			}
 		}
 		this.setPrimes(primes);
@@ -163,9 +456,41 @@ public class ParallelLongSieve extends LongSieve{
 	 * @see LongSieve#printInfo()
 	 */
 	public void printInfo() {
-		System.out.println("This machine has " + (this.numberOfCores + 2) + " core(s). Will run using " + this.numberOfCores + ".");
+		System.out.println("This machine has " + this.availableCores + " available core(s). Will run using "
+				+ this.numberOfCores + (this.adaptive ? " at most, adapting to the throughput." : "."));
+		if(this.adaptive && this.scheduler != null) {
+			System.out.println("The adaptive run peaked at " + this.scheduler.getPeakWorkers() + " thread(s) and finished with "
+					+ this.scheduler.getActiveWorkers() + " after " + this.scheduler.getAdjustments() + " adjustment(s).");
+		}
+		System.out.println("The partitions were sieved with the " + describeAlgorithm() + " algorithm in segments of "
+				+ describeSegmentSize() + ".");
+		printCalibration();
+		if(usesStore()) {
+			System.out.println(this.storedNumbers + " of the " + (this.getUpperBound() - this.getLowerBound())
+					+ " numbers were read from the segment store in " + this.segmentStore.getFolder() + ".");
+		}
+		if(this.memoryBudget > 0) {
+			System.out.println("The memory budget of " + (this.memoryBudget >> 20) + " MB allowed " + this.segmentsInFlight
+					+ " segment(s) at once, against an estimated " + (estimateFootprint() >> 20) + " MB without a budget.");
+			if(this.results != null && this.results.getSpilledSegments() > 0) {
+				System.out.println(this.results.getSpilledSegments() + " segment(s) were spilled to disk, taking "
+						+ (this.results.getSpilledBytes() >> 10) + " KB.");
+			}
+		}
 		System.out.println("Total parallel execution time: " + this.parallelExecutionTime + " milliseconds.");
+		if(isPartial()) {
+			System.out.println("The sieve was cancelled, only the primes from " + this.getLowerBound() + " (inclusive) to "
+					+ this.completedUpperBound + " (exclusive) were kept.");
+		}
 		System.out.println();
+		if(isSegmented()) {
+			// Too many segments to list individually
+			System.out.println("The range was sieved in " + this.partialSieves.size() + " segments.");
+			if(this.scheduler != null) {
+				System.out.println(this.scheduler.getProgress());
+			}
+			return;
+		}
 		for(int i = 0; i < this.partialSieves.size(); i++) {
 			System.out.println("Sieve " +  (i + 1) + "/" + this.partialSieves.size());
 			this.partialSieves.get(i).printInfo();
@@ -173,25 +498,26 @@ public class ParallelLongSieve extends LongSieve{
 		}
 	} // End of printInfo
 	
-	public String writePrimes(ArrayList<ArrayList<Long>> primePartials) {
+	/**
+	 * Writes the primes of the partial sieves to a single file in the output folder, or combines them with
+	 * the parent's writer without one. Each partial is released once it is taken, so the list is emptied.
+	 * @param primePartials The primes of each partial sieve, in order
+	 * @return The name of the file written to, null if there was an error or nothing to write
+	 */
+	public String writePrimes(List<ArrayList<Long>> primePartials) {
 		if(this.outputFolder == null) {
 			return super.writePrimes();
 		}
+		else if(isEmptyPartial()) {
+			return null;
+		}
 		else {
 			// Need to write the partials to the same file
 			try {
-				String fileName = "Primes [" + super.getLowerBound() + "," + super.getUpperBound() + ").txt";
+				String fileName = getFileName();
 				String path = this.outputFolder + "/" + fileName;
-				File outputFile = new File(path);
-				BufferedWriter outputWriter = new BufferedWriter(new FileWriter(outputFile));
-				
-				for(ArrayList<Long> partial : primePartials) {
-					for(long i : partial) {
-						outputWriter.write(String.valueOf(i));
-						outputWriter.newLine();
-					}
-				}
-				outputWriter.close();
+				// The partials are formatted in parallel and written in order, each released once it is taken
+				PrimeFileWriter.writeAndRelease(path, primePartials, this.numberOfCores, readAheadBudget());
 				return fileName;
 			}
 			catch(IOException e) {
@@ -202,8 +528,151 @@ public class ParallelLongSieve extends LongSieve{
 		}
 	} // End of writePrimes
 	
+	/**
+	 * @return The bytes the partials being formatted may take, the part of the memory budget not used by the
+	 * factors and the segments still held, or Long.MAX_VALUE without a budget
+	 */
+	private long readAheadBudget() {
+		if(this.memoryBudget <= 0) {
+			return Long.MAX_VALUE;
+		}
+		long held = this.results == null ? 0 : this.results.getHeldBytes();
+		return Math.max(0, this.memoryBudget - 8L * this.primeFactors.length - held);
+	} // End of readAheadBudget
+	
+	/* (non-Javadoc)
+	 * @see LongSieve#writePrimes(java.lang.String)
+	 * A sieve cancelled before its first segment finished has no primes to write, so no file is written
+	 */
+	public String writePrimes(String outputFolder) {
+		if(isEmptyPartial()) {
+			return null;
+		}
+		return super.writePrimes(outputFolder);
+	} // End of writePrimes
+	
+	/**
+	 * @return True if the sieve was cancelled before its first segment finished, printing that nothing is written
+	 */
+	private boolean isEmptyPartial() {
+		if(isPartial() && this.completedUpperBound == this.getLowerBound()) {
+			System.out.println("No segment finished before the sieve was cancelled, so no file was written.");
+			return true;
+		}
+		return false;
+	} // End of isEmptyPartial
+	
+	/* (non-Javadoc)
+	 * @see LongSieve#getFileName()
+	 * A cancelled sieve is written to a file marked as partial, named with the range that is complete
+	 */
+	protected String getFileName() {
+		if(isPartial()) {
+			return "Partial " + describePrimes() + " [" + this.getLowerBound() + "," + this.completedUpperBound + ") of ["
+					+ this.getLowerBound() + "," + this.getUpperBound() + ").txt";
+		}
+		return super.getFileName();
+	} // End of getFileName
+	
+	/**
+	 * @return True if the range is sieved in more segments than threads, so workers can check for progress
+	 * and cancellation between them
+	 */
+	private boolean isSegmented() {
+		return this.adaptive || this.cancellation != null || this.progressListener != null || this.memoryBudget > 0;
+	}
+	
+	/**
+	 * @return True if the sieve was cancelled before every segment finished
+	 */
+	public boolean isPartial() {
+		return this.partialSieves != null && this.completedUpperBound < this.getUpperBound()
+				&& this.scheduler != null && this.scheduler.isCancelled();
+	}
+	
+	public SegmentScheduler getScheduler() {
+		return this.scheduler;
+	}
+	
+	/**
+	 * @return The number of primes found, including the ones that were written instead of kept
+	 */
+	public long getPrimeCount() {
+		return this.primeCount;
+	}
+	
+	public long getCompletedUpperBound() {
+		return this.completedUpperBound;
+	}
+	
+	public void setCancellationToken(CancellationToken cancellation) {
+		this.cancellation = cancellation;
+	}
+	
+	public void setProgressListener(SieveProgress.Listener progressListener) {
+		this.progressListener = progressListener;
+	}
+	
+	/**
+	 * @param memoryBudget The largest number of bytes the sieve should use, or 0 for no limit.
+	 * The primes are only kept within the budget when they are written to an output folder.
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		this.memoryBudget = Math.max(0, memoryBudget);
+	}
+	
+	public long getMemoryBudget() {
+		return this.memoryBudget;
+	}
+	
+	public int getSegmentsInFlight() {
+		return this.segmentsInFlight;
+	}
+	
+	/**
+	 * @return True if there is a segment store and the full range of primes is sieved and kept, since the store
+	 * doesn't hold the primes of a progression on their own and a count only sieve has none to add
+	 */
+	private boolean usesStore() {
+		return this.segmentStore != null && ! (getAlgorithm() instanceof ProgressionAlgorithm) && ! countsOnly();
+	} // End of usesStore
+	
+	/**
+	 * @return True if the primes are only counted, which is ignored when they are written to an output folder
+	 */
+	private boolean countsOnly() {
+		return isCountOnly() && this.outputFolder == null;
+	} // End of countsOnly
+	
+	/**
+	 * @param segmentStore A store to read the parts of the range it has and add the sieved gaps to, or null
+	 */
+	public void setSegmentStore(SegmentStore segmentStore) {
+		this.segmentStore = segmentStore;
+	}
+	
+	public SegmentStore getSegmentStore() {
+		return this.segmentStore;
+	}
+	
+	public long getStoredNumbers() {
+		return this.storedNumbers;
+	}
+	
 	public String getOutputFolder() {
 		return this.outputFolder;
 	}
 	
+	public long getParallelExecutionTime() {
+		return this.parallelExecutionTime;
+	}
+	
+	public int getNumberOfCores() {
+		return this.numberOfCores;
+	}
+	
+	public boolean isAdaptive() {
+		return this.adaptive;
+	}
+	
 } // End of ParallelLongSieve
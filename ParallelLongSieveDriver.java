@@ -1,12 +1,59 @@
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Scanner;
+import java.util.concurrent.CountDownLatch;
 
 public class ParallelLongSieveDriver {
+	// The size of a segment store when no limit is given
+	private static final long DEFAULT_STORE_MEGABYTES = 4096;
 
+	/**
+	 * @param args
+	 * The same arguments as the LongSieveDriver, optionally followed by "-threads N" or "-threads auto",
+	 * "-progress seconds" to print the progress at that interval, "-algorithm eratosthenes|atkin|auto" (eratosthenes
+	 * by default, auto times both the first time it sees a large range),
+	 * or "-algorithm 1mod4" to only sieve the primes congruent to 1 mod 4 (any residue and modulus),
+	 * "-store folder" to reuse the ranges in a segment store, optionally limited with "-storeLimit megabytes",
+	 * "-memory megabytes" to keep the sieve within a memory budget, and "-segment kilobytes" to override the
+	 * segment size picked from the cache sizes.
+	 * Stopping the JVM (for example with Ctrl-C) cancels the sieve and keeps the segments finished so far.
+	 */
 	public static void main(String[] args) {
-		ParallelLongSieve ps = processArgs(args);
-		ps.parallelSieve();
+		int threads = processThreads(args);
+		long progressInterval = processProgress(args);
+		SieveAlgorithm algorithm = processAlgorithm(args);
+		SegmentStore store = processStore(args);
+		long memoryBudget = processMemory(args);
+		int segmentSize = processSegmentSize(args);
+		ParallelLongSieve ps = processArgs(removeOptions(args));
 		if(ps != null) {
-			ps.call();
+			if(threads >= 0) {
+				ps.setParallelism(threads);
+			}
+			if(progressInterval > 0) {
+				ps.setProgressListener(progressPrinter(progressInterval));
+			}
+			ps.setAlgorithm(algorithm);
+			ps.setSegmentStore(store);
+			ps.setMemoryBudget(memoryBudget);
+			ps.setSegmentSize(segmentSize);
+			CancellationToken cancellation = new CancellationToken();
+			CountDownLatch finished = new CountDownLatch(1);
+			ps.setCancellationToken(cancellation);
+			cancelOnShutdown(cancellation, finished);
+			try {
+				ps.parallelSieve();
+				if(ps.isPartial()) {
+					// The JVM is stopping, so the finished primes are written without asking
+					ps.writePrimes();
+					ps.printInfo();
+					return;
+				}
+			}
+			finally {
+				// Even if the sieve threw, so the shutdown hook never waits forever
+				finished.countDown();
+			}
 			if(promptForWriting(ps.getLowerBound(), ps.getUpperBound(), false)) {
 				ps.writePrimes();
 				System.out.println();
@@ -43,6 +90,211 @@ public class ParallelLongSieveDriver {
 		}
 	} // End of processArgs
 	
+	/**
+	 * @param args The command line arguments
+	 * @return The number of threads given with "-threads", ParallelLongSieve.ADAPTIVE for "auto",
+	 * or -1 if it wasn't given
+	 */
+	public static int processThreads(String[] args) {
+		String threads = getOption(args, "-threads");
+		if(threads == null) {
+			return -1;
+		}
+		if(threads.equalsIgnoreCase("auto")) {
+			return ParallelLongSieve.ADAPTIVE;
+		}
+		try {
+			return Math.max(1, Integer.parseInt(threads));
+		}
+		catch(NumberFormatException e) {
+			System.out.println("Could not read the number of threads, using the default");
+			return -1;
+		}
+	} // End of processThreads
+	
+	/**
+	 * @param args The command line arguments
+	 * @return The milliseconds between progress reports given with "-progress" in seconds, or -1 if it wasn't given
+	 */
+	public static long processProgress(String[] args) {
+		String seconds = getOption(args, "-progress");
+		if(seconds == null) {
+			return -1;
+		}
+		try {
+			return (long) (Double.parseDouble(seconds) * 1000);
+		}
+		catch(NumberFormatException e) {
+			System.out.println("Could not read the progress interval, progress will not be printed");
+			return -1;
+		}
+	} // End of processProgress
+	
+	/**
+	 * @param args The command line arguments
+	 * @return The algorithm given with "-algorithm", or SieveAlgorithm.ERATOSTHENES if it wasn't given, so the
+	 * automatic choice only calibrates when it is asked for
+	 */
+	public static SieveAlgorithm processAlgorithm(String[] args) {
+		String name = getOption(args, "-algorithm");
+		if(name == null) {
+			return SieveAlgorithm.ERATOSTHENES;
+		}
+		SieveAlgorithm algorithm = SieveAlgorithm.forName(name);
+		if(algorithm == null) {
+			System.out.println("Unknown algorithm " + name + ", using eratosthenes");
+			return SieveAlgorithm.ERATOSTHENES;
+		}
+		return algorithm;
+	} // End of processAlgorithm
+	
+	/**
+	 * @param args The command line arguments
+	 * @return The segment size given with "-segment" in kilobytes, in bytes, or 0 if it wasn't given
+	 */
+	public static int processSegmentSize(String[] args) {
+		String kilobytes = getOption(args, "-segment");
+		if(kilobytes == null) {
+			return 0;
+		}
+		try {
+			return (int) Math.max(SegmentTuner.MINIMUM_SEGMENT_SIZE,
+					Math.min(SegmentTuner.MAXIMUM_SEGMENT_SIZE, Long.parseLong(kilobytes) << 10));
+		}
+		catch(NumberFormatException e) {
+			System.out.println("Could not read the segment size, picking it from the cache sizes");
+			return 0;
+		}
+	} // End of processSegmentSize
+	
+	/**
+	 * @param args The command line arguments
+	 * @return The memory budget given with "-memory" in megabytes, in bytes, or 0 if it wasn't given
+	 */
+	public static long processMemory(String[] args) {
+		String megabytes = getOption(args, "-memory");
+		if(megabytes == null) {
+			return 0;
+		}
+		try {
+			return Math.max(0, Long.parseLong(megabytes)) << 20;
+		}
+		catch(NumberFormatException e) {
+			System.out.println("Could not read the memory budget, sieving without one");
+			return 0;
+		}
+	} // End of processMemory
+	
+	/**
+	 * @param args The command line arguments
+	 * @return The segment store in the folder given with "-store", or null if it wasn't given or could not be opened
+	 */
+	public static SegmentStore processStore(String[] args) {
+		String folder = getOption(args, "-store");
+		if(folder == null) {
+			return null;
+		}
+		long megabytes = DEFAULT_STORE_MEGABYTES;
+		String limit = getOption(args, "-storeLimit");
+		if(limit != null) {
+			try {
+				megabytes = Long.parseLong(limit);
+			}
+			catch(NumberFormatException e) {
+				System.out.println("Could not read the store limit, using " + DEFAULT_STORE_MEGABYTES + " megabytes");
+			}
+		}
+		try {
+			return new SegmentStore(folder, megabytes << 20);
+		}
+		catch(IOException e) {
+			System.out.println("Could not open the segment store in " + folder + ", sieving without it");
+			e.printStackTrace();
+			return null;
+		}
+	} // End of processStore
+	
+	/**
+	 * @param args The command line arguments
+	 * @param option The name of the option, including the leading "-"
+	 * @return The value following the option, or null if it wasn't given
+	 */
+	public static String getOption(String[] args, String option) {
+		for(int i = 0; i < args.length - 1; i++) {
+			if(args[i].equals(option)) {
+				return args[i + 1];
+			}
+		}
+		return null;
+	} // End of getOption
+	
+	/**
+	 * @param interval The fewest milliseconds between two printed reports
+	 * @return A listener that prints the progress, skipping reports that arrive sooner than the interval
+	 */
+	public static SieveProgress.Listener progressPrinter(long interval) {
+		long[] lastPrinted = new long[1];
+		return progress -> {
+			if(progress.getElapsedTime() - lastPrinted[0] >= interval
+					|| progress.getSegmentsDone() == progress.getTotalSegments()) {
+				lastPrinted[0] = progress.getElapsedTime();
+				System.out.println("Progress: " + progress);
+			}
+		};
+	} // End of progressPrinter
+	
+	/**
+	 * Cancels the token when the JVM is asked to stop, and holds the shutdown until the sieve has stopped
+	 * so its partial output is complete.
+	 * @param cancellation The token of the running sieve
+	 * @param finished Counted down once the sieve has stopped and written its output
+	 */
+	public static void cancelOnShutdown(CancellationToken cancellation, CountDownLatch finished) {
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			if(finished.getCount() > 0) {
+				System.out.println("Cancelling the sieve...");
+				cancellation.cancel();
+				try {
+					finished.await();
+				}
+				catch(InterruptedException e) {
+					// Exit without waiting
+				}
+			}
+		}));
+	} // End of cancelOnShutdown
+	
+	/**
+	 * @param args The command line arguments
+	 * @return The arguments without any options and their values
+	 */
+	public static String[] removeOptions(String[] args) {
+		ArrayList<String> remaining = new ArrayList<String>();
+		for(int i = 0; i < args.length; i++) {
+			if(args[i].startsWith("-") && i + 1 < args.length && ! isNumber(args[i])) {
+				// Skip the option's value as well
+				i++;
+			}
+			else {
+				remaining.add(args[i]);
+			}
+		}
+		return remaining.toArray(new String[remaining.size()]);
+	} // End of removeOptions
+	
+	/**
+	 * @return True if the argument is a number, so a negative bound isn't mistaken for an option
+	 */
+	private static boolean isNumber(String arg) {
+		try {
+			Long.parseLong(arg);
+			return true;
+		}
+		catch(NumberFormatException e) {
+			return false;
+		}
+	} // End of isNumber
+	
 	public static boolean promptForWriting(long lowerBound, long upperBound, boolean repeat) {
 		if(! repeat) {
 			System.out.println("Would you like to write the primes to a file named: ");
@@ -0,0 +1,337 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Josh Morgan
+ * The Prime Engine is the segmented Sieve of Eratosthenes shared by Sieve, LongSieve and ParallelLongSieve.
+ * The optimizations for this algorithm are:
+ *     Only the odd numbers are stored, one byte per odd number.
+ *     The range is sieved one segment at a time, small enough to stay in the CPU cache.
+ *     The next multiple of each prime factor is carried from one segment to the next, so each prime factor
+ *     only needs one division per range instead of one per segment.
+ *     Ranges that end below 2^31 are sieved entirely with int arithmetic and int offsets, the rest use long
+ *     offsets and divisions only where a value can be larger than an int.
+ *     Prime factors for large limits are generated in two stages, first the primes up to the fourth root of n
+ *     and then the primes up to the square root of n in parallel chunks sieved with them.
+ */
+public class PrimeEngine {
+	// The number of odd numbers in a segment, 128KB of flags by default
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 17;
+	// Limits above this have their primes sieved in parallel chunks
+	private static final long PARALLEL_LIMIT = 1L << 26;
+	// The smallest chunk sieved by a thread when generating prime factors in parallel
+	private static final long MINIMUM_CHUNK = 1L << 22;
+
+	/**
+	 * @param lowerBound The lower bound of the range (inclusive)
+	 * @param upperBound The upper bound of the range (exclusive)
+	 * @param primeFactors The primes up to at least the square root of the upper bound, in increasing order.
+	 * Any primes past the square root are ignored.
+	 * @return The primes in the range, in increasing order
+	 */
+	public static long[] primesBetween(long lowerBound, long upperBound, long[] primeFactors) {
+		return primesBetween(lowerBound, upperBound, primeFactors, DEFAULT_SEGMENT_SIZE);
+	} // End of primesBetween
+
+	/**
+	 * @param lowerBound The lower bound of the range (inclusive)
+	 * @param upperBound The upper bound of the range (exclusive)
+	 * @param primeFactors The primes up to at least the square root of the upper bound, in increasing order
+	 * @param segmentSize The number of odd numbers sieved at a time
+	 * @return The primes in the range, in increasing order
+	 */
+	public static long[] primesBetween(long lowerBound, long upperBound, long[] primeFactors, int segmentSize) {
+		if(upperBound <= 2 || lowerBound >= upperBound) {
+			return new long[0];
+		}
+		PrimeList primes = new PrimeList(estimateCount(lowerBound, upperBound));
+		if(lowerBound <= 2) {
+			primes.add(2);
+		}
+		// Only odd numbers from 3 are stored
+		long firstOdd = Math.max(3, lowerBound | 1);
+		if(firstOdd < upperBound) {
+			if(upperBound <= Integer.MAX_VALUE) {
+				sieveInt((int) firstOdd, (int) upperBound, primeFactors, segmentSize, primes);
+			}
+			else {
+				sieveLong(firstOdd, upperBound, primeFactors, segmentSize, primes);
+			}
+		}
+		return primes.toArray();
+	} // End of primesBetween
+
+	/**
+	 * The 32 bit version of the sieve, used when every value in the range fits in an int.
+	 */
+	private static void sieveInt(int firstOdd, int upperBound, long[] primeFactors, int segmentSize,
+			PrimeList primes) {
+		long[] odd = oddFactors(primeFactors, upperBound);
+		int[] factors = new int[odd.length];
+		int[] next = new int[odd.length];
+		for(int i = 0; i < odd.length; i++) {
+			factors[i] = (int) odd[i];
+			next[i] = (int) firstOffset(odd[i], firstOdd);
+		}
+		// Sized in odd numbers, rounded up when the upper bound is even
+		long odds = ((long) upperBound - firstOdd + 1) >>> 1;
+		boolean[] composite = new boolean[(int) Math.min(segmentSize, odds)];
+		for(long segmentStart = 0; segmentStart < odds; segmentStart += segmentSize) {
+			int length = (int) Math.min(segmentSize, odds - segmentStart);
+			Arrays.fill(composite, 0, length, false);
+			for(int i = 0; i < factors.length; i++) {
+				int j = next[i];
+				int step = factors[i];
+				for(; j < length; j += step) {
+					composite[j] = true;
+				}
+				next[i] = j - length;
+			}
+			int base = firstOdd + (int) (segmentStart << 1);
+			for(int j = 0; j < length; j++) {
+				if(! composite[j]) {
+					primes.add(base + 2L * j);
+				}
+			}
+		}
+	} // End of sieveInt
+
+	/**
+	 * The 64 bit version of the sieve, used when the range goes past the largest int.
+	 */
+	private static void sieveLong(long firstOdd, long upperBound, long[] primeFactors, int segmentSize,
+			PrimeList primes) {
+		long[] factors = oddFactors(primeFactors, upperBound);
+		long[] next = new long[factors.length];
+		for(int i = 0; i < factors.length; i++) {
+			next[i] = firstOffset(factors[i], firstOdd);
+		}
+		long odds = (upperBound - firstOdd + 1) >>> 1;
+		boolean[] composite = new boolean[(int) Math.min(segmentSize, odds)];
+		for(long segmentStart = 0; segmentStart < odds; segmentStart += segmentSize) {
+			int length = (int) Math.min(segmentSize, odds - segmentStart);
+			Arrays.fill(composite, 0, length, false);
+			for(int i = 0; i < factors.length; i++) {
+				long j = next[i];
+				long step = factors[i];
+				for(; j < length; j += step) {
+					composite[(int) j] = true;
+				}
+				next[i] = j - length;
+			}
+			long base = firstOdd + (segmentStart << 1);
+			for(int j = 0; j < length; j++) {
+				if(! composite[j]) {
+					primes.add(base + 2L * j);
+				}
+			}
+		}
+	} // End of sieveLong
+
+	/**
+	 * @return The index among the odd numbers from firstOdd of the first odd multiple of the prime
+	 * that isn't the prime itself
+	 */
+	private static long firstOffset(long prime, long firstOdd) {
+		// Worked out as a distance from firstOdd, since rounding firstOdd up to a multiple overflows near the
+		// largest long
+		long remainder = firstOdd % prime;
+		long distance = remainder == 0 ? 0 : prime - remainder;
+		if((distance & 1) == 1) {
+			// firstOdd + distance is even, the next multiple is odd
+			distance += prime;
+		}
+		// prime * prime is odd, so the distance to it is even
+		distance = Math.max(distance, prime * prime - firstOdd);
+		return distance >>> 1;
+	} // End of firstOffset
+
+	/**
+	 * @return The odd prime factors whose square is below the upper bound
+	 */
+	private static long[] oddFactors(long[] primeFactors, long upperBound) {
+		PrimeList factors = new PrimeList(primeFactors.length);
+		for(long prime : primeFactors) {
+			if(prime == 2) {
+				continue;
+			}
+			if(prime > upperBound / prime) {
+				break;
+			}
+			factors.add(prime);
+		}
+		return factors.toArray();
+	} // End of oddFactors
+
+	/**
+	 * @param limit The largest value to be checked (inclusive)
+	 * @return The primes below or equal to the limit, using every available core for large limits
+	 */
+	public static long[] primeFactors(long limit) {
+		return primeFactors(limit, ParallelLongSieve.getAvailableCores());
+	} // End of primeFactors
+	
+	/**
+	 * @param limit The largest value to be checked (inclusive), usually the square root of the upper bound of a sieve
+	 * @param threads The number of threads sieving the primes past the square root of the limit
+	 * @return The primes below or equal to the limit, from the SmallPrimes table or sieved from the primes below
+	 * its square root
+	 */
+	public static long[] primeFactors(long limit, int threads) {
+		if(limit < 2) {
+			return new long[0];
+		}
+		if(limit < SmallPrimes.LIMIT) {
+			return SmallPrimes.upTo(limit);
+		}
+		// The first stage, the primes up to the square root of the limit
+		long[] smaller = primeFactors((long) Math.sqrt(limit) + 1, threads);
+		// The second stage, sieved with them
+		if(threads <= 1 || limit < PARALLEL_LIMIT) {
+			return primesBetween(0, limit + 1, smaller);
+		}
+		return parallelPrimesBetween(0, limit + 1, smaller, threads);
+	} // End of primeFactors
+	
+	/**
+	 * Sieves a range in chunks on several threads and joins the chunks in order.
+	 * @param lowerBound The lower bound of the range (inclusive)
+	 * @param upperBound The upper bound of the range (exclusive)
+	 * @param primeFactors The primes up to at least the square root of the upper bound, in increasing order
+	 * @param threads The number of threads sieving the chunks
+	 * @return The primes in the range, in increasing order
+	 */
+	public static long[] parallelPrimesBetween(long lowerBound, long upperBound, long[] primeFactors, int threads) {
+		lowerBound = Math.max(0, lowerBound);
+		// Four chunks per thread, so a slow chunk doesn't hold up the rest for long
+		long chunk = Math.max(MINIMUM_CHUNK, (upperBound - lowerBound) / (4 * Math.max(1, threads)) + 1);
+		if(threads <= 1 || upperBound - lowerBound <= chunk) {
+			return primesBetween(lowerBound, upperBound, primeFactors);
+		}
+		ExecutorService EXEC = Executors.newFixedThreadPool(threads);
+		try {
+			ArrayList<Future<long[]>> chunks = new ArrayList<Future<long[]>>();
+			for(long start = lowerBound; start < upperBound; start += chunk) {
+				final long chunkStart = start;
+				final long chunkEnd = Math.min(upperBound, start + chunk);
+				chunks.add(EXEC.submit(() -> primesBetween(chunkStart, chunkEnd, primeFactors)));
+			}
+			long[][] parts = new long[chunks.size()][];
+			long total = 0;
+			for(int i = 0; i < parts.length; i++) {
+				parts[i] = chunks.get(i).get();
+				total += parts[i].length;
+			}
+			long[] primes = new long[(int) total];
+			int position = 0;
+			for(int i = 0; i < parts.length; i++) {
+				System.arraycopy(parts[i], 0, primes, position, parts[i].length);
+				position += parts[i].length;
+				// Let each part go as soon as it is copied
+				parts[i] = null;
+			}
+			return primes;
+		}
+		catch(Exception e) {
+			throw new IllegalStateException("Could not sieve the range in parallel", e);
+		}
+		finally {
+			EXEC.shutdown();
+		}
+	} // End of parallelPrimesBetween
+
+	/**
+	 * Extends a list of primes, such as one read from a file, up to the limit.
+	 * @param primes The primes from 2 in increasing order, possibly ending before the limit
+	 * @param limit The largest prime needed (inclusive)
+	 * @return The primes with every prime up to the limit added, or the same array if nothing was missing
+	 */
+	public static long[] extend(long[] primes, long limit) {
+		long last = primes.length == 0 ? 1 : primes[primes.length - 1];
+		if(last >= limit) {
+			return primes;
+		}
+		long[] missing = parallelPrimesBetween(last + 1, limit + 1, primeFactors((long) Math.sqrt(limit) + 1),
+				ParallelLongSieve.getAvailableCores());
+		long[] extended = Arrays.copyOf(primes, primes.length + missing.length);
+		System.arraycopy(missing, 0, extended, primes.length, missing.length);
+		return extended;
+	} // End of extend
+
+	/**
+	 * A plain Sieve of Eratosthenes for the SmallPrimes table, when it has to be generated.
+	 * @return The primes below or equal to the limit
+	 */
+	static long[] simplePrimes(int limit) {
+		boolean[] composite = new boolean[limit + 1];
+		PrimeList primes = new PrimeList(estimateCount(0, limit + 1));
+		for(int i = 2; i <= limit; i++) {
+			if(! composite[i]) {
+				primes.add(i);
+				for(long j = (long) i * i; j <= limit; j += i) {
+					composite[(int) j] = true;
+				}
+			}
+		}
+		return primes.toArray();
+	} // End of simplePrimes
+
+	/**
+	 * @return An upper estimate of the primes in the range, using x / ln(x) with some room to spare
+	 */
+	public static int estimateCount(long lowerBound, long upperBound) {
+		double size = (double) upperBound - Math.max(0, lowerBound);
+		double log = Math.log(Math.max(upperBound, 3));
+		return (int) Math.min(Integer.MAX_VALUE - 8, 1.3 * size / Math.max(1, log - 1.1) + 16);
+	} // End of estimateCount
+
+	/**
+	 * @return The values boxed into an ArrayList, for the public API of the sieves
+	 */
+	public static ArrayList<Long> toList(long[] values) {
+		ArrayList<Long> list = new ArrayList<Long>(values.length);
+		for(long value : values) {
+			list.add(value);
+		}
+		return list;
+	} // End of toList
+
+	/**
+	 * @return The values unboxed into an array
+	 */
+	public static long[] toArray(List<? extends Number> values) {
+		long[] array = new long[values.size()];
+		for(int i = 0; i < array.length; i++) {
+			array[i] = values.get(i).longValue();
+		}
+		return array;
+	} // End of toArray
+
+	/**
+	 * A growable list of primitive longs, so no primes are boxed while sieving.
+	 */
+	static class PrimeList {
+		private long[] values;
+		private int size;
+
+		PrimeList(int capacity){
+			this.values = new long[Math.max(16, capacity)];
+		}
+
+		void add(long value) {
+			if(this.size == this.values.length) {
+				this.values = Arrays.copyOf(this.values, (int) Math.min(Integer.MAX_VALUE - 8, this.size * 2L));
+			}
+			this.values[this.size++] = value;
+		}
+
+		long[] toArray() {
+			return this.size == this.values.length ? this.values : Arrays.copyOf(this.values, this.size);
+		}
+	} // End of PrimeList
+
+} // End of PrimeEngine
@@ -0,0 +1,146 @@
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * @author Josh Morgan
+ * A check of PrimeEngine and the other sieve algorithms against BigInteger.isProbablePrime, which is exact with
+ * this certainty for the values tested here. Every range is compared number by number, including the ranges on
+ * both sides of 2^31, where PrimeEngine switches from int to long arithmetic, and 2^32, and a range just below
+ * 10^12. Run it with "javac -d classes *.java", "cp SmallPrimes.bin classes/" and "java -cp classes PrimeEngineTest".
+ * The argument "-large" adds a range just below Long.MAX_VALUE, which needs about 5GB of heap for its prime factors.
+ * Exits with 0 if every check passed, 1 otherwise.
+ */
+public class PrimeEngineTest {
+	private static final int CERTAINTY = 50;
+	// Small enough that every range crosses several segments
+	private static final int SMALL_SEGMENT = 1 << 10;
+
+	private static int checks;
+	private static int failures;
+
+	/**
+	 * @param args "-large" to also check a range just below Long.MAX_VALUE
+	 */
+	public static void main(String[] args) {
+		ArrayList<long[]> ranges = new ArrayList<long[]>();
+		ranges.add(new long[] {0, 200000});
+		ranges.add(new long[] {(1L << 31) - 100000, (1L << 31) + 100000});
+		ranges.add(new long[] {(1L << 32) - 100000, (1L << 32) + 100000});
+		ranges.add(new long[] {1000000000000L - 200000, 1000000000000L});
+		if(args.length > 0 && args[0].equals("-large")) {
+			ranges.add(new long[] {Long.MAX_VALUE - 20000, Long.MAX_VALUE});
+		}
+
+		checkPrimeFactors(1 << 22);
+		for(long[] range : ranges) {
+			checkRange(range[0], range[1]);
+		}
+		checkEdges();
+
+		System.out.println((checks - failures) + "/" + checks + " check(s) passed.");
+		if(failures > 0) {
+			System.exit(1);
+		}
+	} // End of main
+
+	/**
+	 * Compares the prime factors, generated on one thread and on several, with the primes up to the limit.
+	 * @param limit The largest prime factor (inclusive)
+	 */
+	private static void checkPrimeFactors(long limit) {
+		long[] expected = expectedPrimes(0, limit + 1);
+		check("primeFactors(" + limit + ")", expected, PrimeEngine.primeFactors(limit));
+		check("primeFactors(" + limit + ", 4)", expected, PrimeEngine.primeFactors(limit, 4));
+	} // End of checkPrimeFactors
+
+	/**
+	 * Compares PrimeEngine, with the default and a small segment size, its parallel version and every algorithm
+	 * with the primes of the range.
+	 * @param lowerBound The lower bound of the range (inclusive)
+	 * @param upperBound The upper bound of the range (exclusive)
+	 */
+	private static void checkRange(long lowerBound, long upperBound) {
+		String range = "[" + lowerBound + "," + upperBound + ")";
+		long[] expected = expectedPrimes(lowerBound, upperBound);
+		long[] primeFactors = PrimeEngine.primeFactors((long) Math.sqrt(upperBound) + 1,
+				ParallelLongSieve.getAvailableCores());
+
+		check("PrimeEngine " + range, expected, PrimeEngine.primesBetween(lowerBound, upperBound, primeFactors));
+		check("PrimeEngine " + range + " in small segments", expected,
+				PrimeEngine.primesBetween(lowerBound, upperBound, primeFactors, SMALL_SEGMENT));
+		check("PrimeEngine " + range + " in parallel", expected,
+				PrimeEngine.parallelPrimesBetween(lowerBound, upperBound, primeFactors, 4));
+		for(SieveAlgorithm algorithm : new SieveAlgorithm[] {SieveAlgorithm.ERATOSTHENES, SieveAlgorithm.ATKIN,
+				SieveAlgorithm.AUTO}) {
+			check(algorithm.getName() + " " + range, expected,
+					algorithm.primesBetween(lowerBound, upperBound, primeFactors));
+		}
+		for(String progression : new String[] {"1mod4", "3mod4", "7mod30"}) {
+			ProgressionAlgorithm algorithm = ProgressionAlgorithm.parse(progression);
+			check(progression + " " + range, inProgression(expected, progression),
+					algorithm.primesBetween(lowerBound, upperBound, primeFactors, SMALL_SEGMENT));
+		}
+	} // End of checkRange
+
+	/**
+	 * Checks the ranges that are empty or hold only the smallest primes.
+	 */
+	private static void checkEdges() {
+		long[] primeFactors = PrimeEngine.primeFactors(100);
+		long[][] ranges = {{0, 0}, {0, 2}, {0, 3}, {2, 3}, {3, 3}, {5, 4}, {-10, 10}, {9, 11}, {24, 29}};
+		for(long[] range : ranges) {
+			long[] expected = expectedPrimes(range[0], range[1]);
+			String name = "[" + range[0] + "," + range[1] + ")";
+			check("PrimeEngine " + name, expected, PrimeEngine.primesBetween(range[0], range[1], primeFactors));
+			check("atkin " + name, expected, SieveAlgorithm.ATKIN.primesBetween(range[0], range[1], primeFactors));
+		}
+	} // End of checkEdges
+
+	/**
+	 * @param lowerBound The lower bound of the range (inclusive)
+	 * @param upperBound The upper bound of the range (exclusive)
+	 * @return The primes of the range, tested one at a time with BigInteger
+	 */
+	private static long[] expectedPrimes(long lowerBound, long upperBound) {
+		ArrayList<Long> primes = new ArrayList<Long>();
+		for(long n = Math.max(2, lowerBound); n < upperBound; n++) {
+			if(BigInteger.valueOf(n).isProbablePrime(CERTAINTY)) {
+				primes.add(n);
+			}
+		}
+		return PrimeEngine.toArray(primes);
+	} // End of expectedPrimes
+
+	/**
+	 * @param primes The primes of a range
+	 * @param progression A progression of the form "1mod4"
+	 * @return The primes that are congruent to the residue
+	 */
+	private static long[] inProgression(long[] primes, String progression) {
+		String[] parts = progression.split("mod");
+		long residue = Long.parseLong(parts[0]);
+		long modulus = Long.parseLong(parts[1]);
+		return Arrays.stream(primes).filter(prime -> prime % modulus == residue).toArray();
+	} // End of inProgression
+
+	/**
+	 * Prints the name of a check that failed, along with the first prime that differs.
+	 */
+	private static void check(String name, long[] expected, long[] actual) {
+		checks++;
+		if(Arrays.equals(expected, actual)) {
+			return;
+		}
+		failures++;
+		int i = 0;
+		while(i < expected.length && i < actual.length && expected[i] == actual[i]) {
+			i++;
+		}
+		System.out.println("FAILED " + name + ": expected " + expected.length + " prime(s), got " + actual.length
+				+ ", first difference at index " + i + " (expected "
+				+ (i < expected.length ? String.valueOf(expected[i]) : "none") + ", got "
+				+ (i < actual.length ? String.valueOf(actual[i]) : "none") + ")");
+	} // End of check
+
+} // End of PrimeEngineTest
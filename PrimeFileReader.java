@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * @author Josh Morgan
+ * A reader for files containing one prime per line, such as the ones written by writePrimes.
+ * The file is memory mapped and the ASCII digits are parsed straight from the mapped buffer,
+ * so no Strings or boxed values are created per line. Reading stops at the first prime past the limit,
+ * so only the start of a very large file is ever touched. Ranges are found with a binary search over the lines.
+ */
+public class PrimeFileReader {
+	// The largest part of the file mapped at a time, a single mapping can't be larger than 2GB
+	private static final long WINDOW = 1 << 30;
+	// The distance at which a binary search of the file stops and the rest is scanned
+	private static final long SCAN_DISTANCE = 1 << 12;
+
+	/**
+	 * @param inputFile The path of a file containing one prime per line, in increasing order
+	 * @param limit The largest prime needed, the first prime past it is also included
+	 * @return The primes in the file up to and including the first one past the limit
+	 * @throws IOException If the file could not be opened or mapped
+	 */
+	public static long[] readPrimes(String inputFile, long limit) throws IOException {
+		try(FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+			return parse(channel, 0, Long.MIN_VALUE, limit, true);
+		}
+	} // End of readPrimes
+	
+	/**
+	 * Reads only the primes of a range, starting from a binary search of the file for the lower bound
+	 * so a range near the end of a large file doesn't parse everything before it.
+	 * @param inputFile The path of a file containing one prime per line, in increasing order
+	 * @param lowerBound The lower bound of the range (inclusive)
+	 * @param upperBound The upper bound of the range (exclusive)
+	 * @return The primes in the file within the range
+	 * @throws IOException If the file could not be opened or mapped
+	 */
+	public static long[] readPrimes(String inputFile, long lowerBound, long upperBound) throws IOException {
+		if(lowerBound >= upperBound) {
+			return new long[0];
+		}
+		try(FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+			return parse(channel, findLine(channel, lowerBound), lowerBound, upperBound - 1, false);
+		}
+	} // End of readPrimes
+	
+	/**
+	 * Parses the numbers from a position in the file, mapping it one window at a time.
+	 * @param channel The file being read
+	 * @param position The start of a line to start parsing from
+	 * @param lowerBound Numbers below this are skipped
+	 * @param limit Parsing stops at the first number past this
+	 * @param includeLast True to include the first number past the limit
+	 * @return The numbers that were kept
+	 */
+	private static long[] parse(FileChannel channel, long position, long lowerBound, long limit, boolean includeLast)
+			throws IOException {
+		long[] primes = new long[1024];
+		int count = 0;
+		long size = channel.size();
+		long value = 0;
+		boolean inNumber = false;
+		// A number that is split between two windows is carried over in value
+		for(; position < size; position += WINDOW) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position,
+					Math.min(WINDOW, size - position));
+			int end = buffer.limit();
+			for(int i = 0; i < end; i++) {
+				int digit = buffer.get(i) - '0';
+				if(digit >= 0 && digit <= 9) {
+					value = value * 10 + digit;
+					inNumber = true;
+				}
+				else if(inNumber) {
+					// Any other character, usually a line break, ends the number
+					if(value > limit) {
+						if(includeLast) {
+							primes = add(primes, count++, value);
+						}
+						return Arrays.copyOf(primes, count);
+					}
+					if(value >= lowerBound) {
+						primes = add(primes, count++, value);
+					}
+					value = 0;
+					inNumber = false;
+				}
+			}
+		}
+		if(inNumber && value >= lowerBound && (value <= limit || includeLast)) {
+			// The last line had no line break
+			primes = add(primes, count++, value);
+		}
+		return Arrays.copyOf(primes, count);
+	} // End of parse
+	
+	/**
+	 * @return The array holding the value at the index, grown if it was full
+	 */
+	private static long[] add(long[] primes, int index, long value) {
+		if(index == primes.length) {
+			primes = Arrays.copyOf(primes, index * 2);
+		}
+		primes[index] = value;
+		return primes;
+	} // End of add
+	
+	/**
+	 * Binary searches the lines of the file for the lower bound.
+	 * @return The start of a line with only numbers below the lower bound before it, close to the first one that isn't
+	 */
+	private static long findLine(FileChannel channel, long lowerBound) throws IOException {
+		long low = 0;
+		long high = channel.size();
+		ByteBuffer probe = ByteBuffer.allocate(64);
+		while(high - low > SCAN_DISTANCE) {
+			long middle = (low + high) >>> 1;
+			probe.clear();
+			channel.read(probe, middle);
+			probe.flip();
+			// Skip the rest of the line the middle landed in
+			int i = 0;
+			while(i < probe.limit() && probe.get(i) != '\n') {
+				i++;
+			}
+			long lineStart = middle + i + 1;
+			long value = 0;
+			boolean found = false;
+			for(i++; i < probe.limit() && probe.get(i) >= '0' && probe.get(i) <= '9'; i++) {
+				value = value * 10 + probe.get(i) - '0';
+				found = true;
+			}
+			if(found && value < lowerBound && lineStart < high) {
+				low = lineStart;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	} // End of findLine
+
+} // End of PrimeFileReader
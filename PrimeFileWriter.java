@@ -0,0 +1,290 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * @author Josh Morgan
+ * A writer for files containing one prime per line, producing the same bytes as a BufferedWriter
+ * writing String.valueOf(prime) followed by newLine().
+ * The optimizations for this writer are:
+ *     Formatting the digits straight into a reusable direct ByteBuffer that is flushed through a FileChannel,
+ *     so no Strings or chars are created per prime.
+ *     Converting two digits at a time with a lookup table when a value has to be formatted from scratch.
+ *     Adding the gap from the previous prime to its digits when the gap is small, which is almost always the case,
+ *     instead of formatting every value from scratch.
+ * Lists of primes can also be formatted in parallel and written in order with writePartials, or with
+ * writeAndRelease to free each list once it is written.
+ */
+public class PrimeFileWriter implements Closeable{
+	// The size of the buffer flushed to the channel
+	private static final int BUFFER_SIZE = 1 << 20;
+	// The largest gap that is added to the previous digits instead of formatting the value from scratch
+	private static final long MAX_GAP = 1000;
+	// The digits of every number from 00 to 99, two bytes per number
+	private static final byte[] DIGIT_PAIRS = new byte[200];
+	private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes();
+	static {
+		for(int i = 0; i < 100; i++) {
+			DIGIT_PAIRS[2 * i] = (byte) ('0' + i / 10);
+			DIGIT_PAIRS[2 * i + 1] = (byte) ('0' + i % 10);
+		}
+	}
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	private Digits digits;
+	private long count;
+
+	/**
+	 * The digits of the previous value written, right aligned so a carry can grow them to the left.
+	 */
+	private static class Digits {
+		byte[] digits = new byte[20];
+		int start = 20;
+		long previous = -1;
+
+		/**
+		 * Puts the digits of the value into the target, followed by a line separator.
+		 * The target needs room for 20 digits and a separator.
+		 */
+		void put(ByteBuffer target, long value) {
+			if(value < 0) {
+				// Primes are never negative, this just keeps the output correct for any long
+				target.put(Long.toString(value).getBytes());
+				this.previous = -1;
+			}
+			else {
+				if(this.previous >= 0 && value >= this.previous && value - this.previous <= MAX_GAP) {
+					addGap(value - this.previous);
+				}
+				else {
+					this.start = formatDigits(value, this.digits);
+				}
+				this.previous = value;
+				target.put(this.digits, this.start, this.digits.length - this.start);
+			}
+			target.put(LINE_SEPARATOR);
+		} // End of put
+
+		/**
+		 * Adds a gap to the digits of the previous value, carrying to the left as needed.
+		 * @param gap The difference between the new and the previous value
+		 */
+		private void addGap(long gap) {
+			int i = this.digits.length - 1;
+			int carry = (int) gap;
+			while(carry > 0) {
+				if(i < this.start) {
+					// The value has one more digit than the previous one
+					this.start = i;
+					this.digits[i] = '0';
+				}
+				int digit = this.digits[i] - '0' + carry % 10;
+				carry /= 10;
+				if(digit >= 10) {
+					digit -= 10;
+					carry++;
+				}
+				this.digits[i] = (byte) ('0' + digit);
+				i--;
+			}
+		} // End of addGap
+	} // End of Digits
+
+	/**
+	 * @param outputFile The path of the file to be written, it is replaced if it already exists
+	 * @throws IOException If the file could not be opened
+	 */
+	PrimeFileWriter(String outputFile) throws IOException {
+		this(FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING));
+	} // End of Constructor
+
+	/**
+	 * @param channel The channel to write to, which is closed along with this writer
+	 */
+	PrimeFileWriter(FileChannel channel){
+		this.channel = channel;
+		this.buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		this.digits = new Digits();
+	} // End of Constructor
+
+	/**
+	 * Writes the value followed by a line separator.
+	 * @param value The value to be written
+	 */
+	public void write(long value) throws IOException {
+		if(this.buffer.remaining() < 20 + LINE_SEPARATOR.length) {
+			flush();
+		}
+		this.digits.put(this.buffer, value);
+		this.count++;
+	} // End of write
+
+	/**
+	 * Formats a non negative value two digits at a time, right aligned in the array.
+	 * @param value The value to be formatted
+	 * @param digits An array of at least 19 digits
+	 * @return The index of the first digit
+	 */
+	private static int formatDigits(long value, byte[] digits) {
+		int i = digits.length;
+		while(value >= 100) {
+			int pair = (int) (value % 100);
+			value /= 100;
+			digits[--i] = DIGIT_PAIRS[2 * pair + 1];
+			digits[--i] = DIGIT_PAIRS[2 * pair];
+		}
+		if(value >= 10) {
+			digits[--i] = DIGIT_PAIRS[2 * (int) value + 1];
+			digits[--i] = DIGIT_PAIRS[2 * (int) value];
+		}
+		else {
+			digits[--i] = (byte) ('0' + value);
+		}
+		return i;
+	} // End of formatDigits
+
+	/**
+	 * Writes the formatted bytes of a whole list at once, as produced by format.
+	 * @param formatted The formatted primes, ready to be read
+	 */
+	public void write(ByteBuffer formatted) throws IOException {
+		flush();
+		while(formatted.hasRemaining()) {
+			this.channel.write(formatted);
+		}
+	} // End of write
+
+	/**
+	 * Writes everything in the buffer to the channel.
+	 */
+	public void flush() throws IOException {
+		this.buffer.flip();
+		while(this.buffer.hasRemaining()) {
+			this.channel.write(this.buffer);
+		}
+		this.buffer.clear();
+	} // End of flush
+
+	/**
+	 * Flushes the buffer and closes the channel.
+	 */
+	public void close() throws IOException {
+		try {
+			flush();
+		}
+		finally {
+			this.channel.close();
+		}
+	} // End of close
+
+	/**
+	 * @return The number of values written one at a time
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * Formats a list of primes into a heap buffer, so several lists can be formatted at once before they are
+	 * written in order.
+	 * @param primes The primes to be formatted
+	 * @return A buffer ready to be read, holding one prime per line
+	 */
+	public static ByteBuffer format(List<Long> primes) {
+		int separator = LINE_SEPARATOR.length;
+		// Size the buffer from the digits of the largest prime, most primes in a list have as many
+		long largest = primes.isEmpty() ? 0 : Math.max(0, primes.get(primes.size() - 1));
+		int length = Long.toString(largest).length();
+		ByteBuffer formatted = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8,
+				(long) primes.size() * (length + separator) + 20 + separator));
+		Digits digits = new Digits();
+		for(long value : primes) {
+			if(formatted.remaining() < 20 + separator) {
+				// Only reached if the list isn't sorted
+				ByteBuffer larger = ByteBuffer.allocate(formatted.capacity() * 2 + 20 + separator);
+				formatted.flip();
+				larger.put(formatted);
+				formatted = larger;
+			}
+			digits.put(formatted, value);
+		}
+		formatted.flip();
+		return formatted;
+	} // End of format
+
+	/**
+	 * Formats the partial lists in parallel and writes them to the file in order.
+	 * At most two partials per thread are formatted ahead of the one being written, to bound the memory used.
+	 * @param outputFile The path of the file to be written
+	 * @param partials The lists of primes, in the order they are written
+	 * @param threads The number of threads formatting the lists
+	 */
+	public static void writePartials(String outputFile, List<? extends List<Long>> partials, int threads)
+			throws IOException {
+		writePartials(outputFile, partials, threads, Long.MAX_VALUE, false);
+	} // End of writePartials
+
+	/**
+	 * Formats the partial lists in parallel and writes them to the file in order, setting each slot of the list
+	 * to null as soon as its partial is taken so it can be freed once it is written.
+	 * The partials formatted ahead of the one being written are also limited by their estimated memory, so the
+	 * read ahead fits in a memory budget. There is always at least one partial in flight.
+	 * @param outputFile The path of the file to be written
+	 * @param partials The lists of primes, in the order they are written, which must support set(index, null)
+	 * @param threads The number of threads formatting the lists
+	 * @param readAheadBytes The estimated bytes the partials in flight may take, Long.MAX_VALUE for no limit
+	 */
+	public static void writeAndRelease(String outputFile, List<? extends List<Long>> partials, int threads,
+			long readAheadBytes) throws IOException {
+		writePartials(outputFile, partials, threads, readAheadBytes, true);
+	} // End of writeAndRelease
+
+	private static void writePartials(String outputFile, List<? extends List<Long>> partials, int threads,
+			long readAheadBytes, boolean release) throws IOException {
+		ExecutorService EXEC = Executors.newFixedThreadPool(Math.max(1, threads));
+		// A partial in flight holds its boxed primes and then their digits
+		long bytesPerPrime = SpillingPartials.BYTES_PER_PRIME + 20 + LINE_SEPARATOR.length;
+		try(PrimeFileWriter writer = new PrimeFileWriter(outputFile)) {
+			ArrayDeque<Future<ByteBuffer>> formatting = new ArrayDeque<Future<ByteBuffer>>();
+			ArrayDeque<Long> formattingBytes = new ArrayDeque<Long>();
+			long bytesInFlight = 0;
+			int next = 0;
+			while(next < partials.size() || ! formatting.isEmpty()) {
+				while(next < partials.size() && formatting.size() < 2 * Math.max(1, threads)
+						&& (formatting.isEmpty() || bytesInFlight < readAheadBytes)) {
+					List<Long> partial = partials.get(next);
+					if(release) {
+						partials.set(next, null);
+					}
+					next++;
+					long bytes = partial.size() * bytesPerPrime;
+					formattingBytes.add(bytes);
+					bytesInFlight += bytes;
+					formatting.add(EXEC.submit(() -> format(partial)));
+				}
+				writer.write(formatting.poll().get());
+				bytesInFlight -= formattingBytes.poll();
+			}
+		}
+		catch(Exception e) {
+			if(e instanceof IOException) {
+				throw (IOException) e;
+			}
+			throw new IOException("Could not format the primes", e);
+		}
+		finally {
+			EXEC.shutdown();
+		}
+	} // End of writePartials
+
+} // End of PrimeFileWriter
@@ -0,0 +1,225 @@
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * @author Josh Morgan
+ * A segmented Sieve of Eratosthenes over the arithmetic progression residue, residue + modulus, ... only, for the
+ * primes that are congruent to the residue mod the modulus, such as 1 mod 4 or 3 mod 8.
+ * The flags are indexed by the term of the progression instead of the number, so the work and the memory are about
+ * 1 / modulus of a full sieve, or 2 / modulus of the odd only Sieve of Eratosthenes.
+ * Each prime factor that doesn't divide the modulus divides every p-th term, starting from the term found with
+ * the inverse of the modulus mod p, so it crosses off terms with a step of p just like the full sieve.
+ * When the residue and the modulus share a factor there is at most one prime in the progression, which is checked
+ * on its own.
+ * Since it is a SieveAlgorithm, LongSieve and ParallelLongSieve partition and write its primes like any other.
+ */
+public class ProgressionAlgorithm implements SieveAlgorithm{
+	private long residue;
+	private long modulus;
+	// The number of residues mod the modulus that are coprime to it, for sizing the results
+	private long totient;
+
+	/**
+	 * @param residue The residue of the primes, reduced mod the modulus
+	 * @param modulus The modulus of the progression, at least 1
+	 */
+	ProgressionAlgorithm(long residue, long modulus){
+		this.modulus = Math.max(1, modulus);
+		this.residue = Math.floorMod(residue, this.modulus);
+		this.totient = totient(this.modulus);
+	} // End of Constructor
+
+	/**
+	 * @param progression A progression of the form "1mod4" or "progression 1 mod 4", ignoring case and spaces
+	 * @return The matching algorithm, or null if it couldn't be read
+	 */
+	public static ProgressionAlgorithm parse(String progression) {
+		String[] parts = progression.replace(" ", "").toLowerCase().replace("progression", "").split("mod");
+		if(parts.length != 2) {
+			return null;
+		}
+		try {
+			long modulus = Long.parseLong(parts[1]);
+			if(modulus < 1) {
+				return null;
+			}
+			return new ProgressionAlgorithm(Long.parseLong(parts[0]), modulus);
+		}
+		catch(NumberFormatException e) {
+			return null;
+		}
+	} // End of parse
+
+	/**
+	 * @return The primes in the range that are congruent to the residue, in increasing order
+	 * @param segmentSize The number of terms sieved at a time
+	 */
+	public long[] primesBetween(long lowerBound, long upperBound, long[] primeFactors, int segmentSize) {
+		lowerBound = Math.max(0, lowerBound);
+		if(upperBound <= 2 || lowerBound >= upperBound) {
+			return new long[0];
+		}
+		if(gcd(this.residue, this.modulus) > 1) {
+			return sharedFactorPrime(lowerBound, upperBound);
+		}
+		// The first term at or above the lower bound, and the number of terms in the range
+		long first = lowerBound + Math.floorMod(this.residue - lowerBound, this.modulus);
+		if(first >= upperBound) {
+			return new long[0];
+		}
+		long terms = (upperBound - first - 1) / this.modulus + 1;
+
+		long[] factors = new long[primeFactors.length];
+		long[] next = new long[primeFactors.length];
+		int count = 0;
+		for(long p : primeFactors) {
+			if(p > upperBound / p) {
+				break;
+			}
+			if(this.modulus % p == 0) {
+				// No term is divisible by a prime factor of the modulus
+				continue;
+			}
+			factors[count] = p;
+			next[count] = firstTerm(p, first);
+			count++;
+		}
+
+		long estimate = PrimeEngine.estimateCount(lowerBound, upperBound) / this.totient + 16;
+		PrimeEngine.PrimeList primes = new PrimeEngine.PrimeList((int) Math.min(Integer.MAX_VALUE - 8, estimate));
+		boolean[] composite = new boolean[(int) Math.min(segmentSize, terms)];
+		for(long segmentStart = 0; segmentStart < terms; segmentStart += segmentSize) {
+			int length = (int) Math.min(segmentSize, terms - segmentStart);
+			Arrays.fill(composite, 0, length, false);
+			for(int i = 0; i < count; i++) {
+				long j = next[i];
+				long step = factors[i];
+				for(; j < length; j += step) {
+					composite[(int) j] = true;
+				}
+				next[i] = j - length;
+			}
+			long base = first + segmentStart * this.modulus;
+			for(int j = 0; j < length; j++) {
+				if(! composite[j]) {
+					long term = base + j * this.modulus;
+					if(term >= 2) {
+						primes.add(term);
+					}
+				}
+			}
+		}
+		return primes.toArray();
+	} // End of primesBetween
+
+	/**
+	 * @param p A prime factor that doesn't divide the modulus
+	 * @param first The first term of the range
+	 * @return The index of the first term that is a multiple of p at or above p squared, so p itself is kept
+	 */
+	private long firstTerm(long p, long first) {
+		// first + k * modulus = 0 mod p, so k = -first / modulus mod p
+		long k = mulMod(Math.floorMod(-first, p), inverse(this.modulus % p, p), p);
+		long square = p * p;
+		if(square > first) {
+			long smallest = (square - first + this.modulus - 1) / this.modulus;
+			if(k < smallest) {
+				k += (smallest - k + p - 1) / p * p;
+			}
+		}
+		return k;
+	} // End of firstTerm
+
+	/**
+	 * Every term is divisible by the common factor of the residue and the modulus, so the only term that can be
+	 * prime is the smallest positive one, when it is that prime.
+	 */
+	private long[] sharedFactorPrime(long lowerBound, long upperBound) {
+		long candidate = this.residue == 0 ? this.modulus : this.residue;
+		if(candidate >= lowerBound && candidate < upperBound && isPrime(candidate)) {
+			return new long[] {candidate};
+		}
+		return new long[0];
+	} // End of sharedFactorPrime
+
+	private static boolean isPrime(long value) {
+		if(value < 2) {
+			return false;
+		}
+		for(long d = 2; d <= value / d; d++) {
+			if(value % d == 0) {
+				return false;
+			}
+		}
+		return true;
+	} // End of isPrime
+
+	private static long totient(long value) {
+		long totient = value;
+		for(long d = 2; d <= value / d; d++) {
+			if(value % d == 0) {
+				totient -= totient / d;
+				while(value % d == 0) {
+					value /= d;
+				}
+			}
+		}
+		if(value > 1) {
+			totient -= totient / value;
+		}
+		return totient;
+	} // End of totient
+
+	private static long gcd(long a, long b) {
+		while(b != 0) {
+			long remainder = a % b;
+			a = b;
+			b = remainder;
+		}
+		return a;
+	} // End of gcd
+
+	/**
+	 * @return The inverse of a mod the prime p, from the extended Euclidean algorithm
+	 */
+	private static long inverse(long a, long p) {
+		long oldR = a, r = p;
+		long oldS = 1, s = 0;
+		while(r != 0) {
+			long quotient = oldR / r;
+			long temp = r;
+			r = oldR - quotient * r;
+			oldR = temp;
+			temp = s;
+			s = oldS - quotient * s;
+			oldS = temp;
+		}
+		return Math.floorMod(oldS, p);
+	} // End of inverse
+
+	/**
+	 * @return a * b mod m, without overflowing for prime factors up to the square root of the largest long
+	 */
+	private static long mulMod(long a, long b, long m) {
+		if(a < (1L << 31) && b < (1L << 31)) {
+			return a * b % m;
+		}
+		return BigInteger.valueOf(a).multiply(BigInteger.valueOf(b)).mod(BigInteger.valueOf(m)).longValue();
+	} // End of mulMod
+
+	public long getResidue() {
+		return this.residue;
+	}
+
+	public long getModulus() {
+		return this.modulus;
+	}
+
+	/**
+	 * @return The name of the progression, of the form "progression 1 mod 4"
+	 */
+	public String getName() {
+		return "progression " + this.residue + " mod " + this.modulus;
+	}
+
+} // End of ProgressionAlgorithm
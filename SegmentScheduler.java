@@ -0,0 +1,254 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Josh Morgan
+ * A Segment Scheduler runs a list of sieves on a pool of workers, handing out the sieves in order from a shared queue.
+ * With a fixed number of workers every worker is always active. In adaptive mode the scheduler starts with a single
+ * active worker and measures the numbers sieved per second over a window of segments. It keeps adding workers while
+ * that throughput grows, and settles one step back once an extra worker stops helping, for example once the memory
+ * bandwidth is saturated or the CPU is shared with other jobs. Settled runs are probed every few windows in case
+ * the machine has become more or less busy.
+ * Workers check an optional CancellationToken before taking each segment and report an optional
+ * SieveProgress.Listener after finishing one.
+ */
+public class SegmentScheduler {
+	// A change in throughput smaller than this is treated as noise
+	private static final double IMPROVEMENT = 1.05;
+	// A drop in throughput larger than this while settled means the machine has become busier
+	private static final double DEGRADATION = 0.8;
+	// The number of settled windows before probing for another worker
+	private static final int PROBE_INTERVAL = 16;
+	// The shortest window that is measured, shorter ones are mostly timer noise
+	private static final long MINIMUM_WINDOW = 20_000_000L;
+
+	private enum Phase {GROW, SHRINK, SETTLED}
+
+	private int maxWorkers;
+	private boolean adaptive;
+	private volatile int activeWorkers;
+	private int peakWorkers;
+	private Phase phase;
+	private double bestThroughput;
+	private int bestWorkers;
+	private int settledWindows;
+	private long windowStart;
+	private long windowNumbers;
+	private int windowSegments;
+	private int adjustments;
+	private CancellationToken cancellation;
+	private SieveProgress.Listener listener;
+	private long startTime;
+	private int totalSegments;
+	private long totalNumbers;
+	private int segmentsDone;
+	private long numbersCovered;
+	private long primesFound;
+
+	/**
+	 * @param maxWorkers The largest number of workers that will sieve at the same time
+	 * @param adaptive True to adjust the number of active workers to the measured throughput
+	 */
+	SegmentScheduler(int maxWorkers, boolean adaptive){
+		this.maxWorkers = Math.max(1, maxWorkers);
+		this.adaptive = adaptive;
+		this.activeWorkers = adaptive ? 1 : this.maxWorkers;
+		this.peakWorkers = this.activeWorkers;
+		this.phase = Phase.GROW;
+	} // End of Constructor
+
+	/**
+	 * Runs every segment on the executor, which needs at least maxWorkers threads.
+	 * @param segments The sieves to be run, in order of their ranges
+	 * @param EXEC The executor the workers will run on
+	 * @return The primes of each segment, in the same order as the segments.
+	 * If the run was cancelled, the segments that never ran are null.
+	 */
+	public SpillingPartials run(List<LongSieve> segments, ExecutorService EXEC) throws Exception {
+		return run(segments, EXEC, new SpillingPartials(segments.size(), Long.MAX_VALUE));
+	} // End of run
+	
+	/**
+	 * Runs every segment on the executor, which needs at least maxWorkers threads.
+	 * A segment whose primes are spilled has them dropped from its sieve, so only the results hold on to them.
+	 * @param segments The sieves to be run, in order of their ranges
+	 * @param EXEC The executor the workers will run on
+	 * @param results Receives the primes of each segment at the same index as the segment
+	 * @return The results, where the segments that never ran are null if the run was cancelled
+	 */
+	public SpillingPartials run(List<LongSieve> segments, ExecutorService EXEC, SpillingPartials results)
+			throws Exception {
+		AtomicInteger nextSegment = new AtomicInteger();
+		this.totalSegments = segments.size();
+		for(LongSieve segment : segments) {
+			this.totalNumbers += segment.getUpperBound() - segment.getLowerBound();
+		}
+		this.startTime = System.currentTimeMillis();
+		this.windowStart = System.nanoTime();
+		ArrayList<Future<?>> workers = new ArrayList<Future<?>>();
+		for(int i = 0; i < Math.min(this.maxWorkers, segments.size()); i++) {
+			final int worker = i;
+			workers.add(EXEC.submit(() -> {
+				work(worker, segments, results, nextSegment);
+				return null;
+			}));
+		}
+		for(Future<?> worker : workers) {
+			worker.get();
+		}
+		return results;
+	} // End of run
+
+	/**
+	 * The loop of a single worker, which only takes segments while its index is below the number of active workers.
+	 */
+	private void work(int worker, List<LongSieve> segments, SpillingPartials results, AtomicInteger nextSegment)
+			throws InterruptedException {
+		while(true) {
+			synchronized(this) {
+				while(worker >= this.activeWorkers && nextSegment.get() < segments.size() && ! isCancelled()) {
+					// Timed so a parked worker also notices a cancellation
+					wait(100);
+				}
+			}
+			if(isCancelled()) {
+				break;
+			}
+			int index = nextSegment.getAndIncrement();
+			if(index >= segments.size()) {
+				break;
+			}
+			LongSieve segment = segments.get(index);
+			ArrayList<Long> primes = segment.call();
+			// A segment that only counts its primes returns an empty list
+			long count = segment.getPrimeCount();
+			if(! results.put(index, primes, count)) {
+				segment.setPrimes(null);
+			}
+			recordSegment(segment.getUpperBound() - segment.getLowerBound(), count);
+		}
+		synchronized(this) {
+			// Wake any parked workers so they can see the queue is empty
+			notifyAll();
+		}
+	} // End of work
+
+	/**
+	 * Adds a finished segment to the progress and the current window, and adjusts the active workers once
+	 * the window is complete.
+	 * @param numbers The size of the finished segment
+	 * @param primes The number of primes in the finished segment
+	 */
+	private synchronized void recordSegment(long numbers, long primes) {
+		this.segmentsDone++;
+		this.numbersCovered += numbers;
+		this.primesFound += primes;
+		if(this.listener != null) {
+			this.listener.onProgress(getProgress());
+		}
+		this.windowNumbers += numbers;
+		this.windowSegments++;
+		long elapsed = System.nanoTime() - this.windowStart;
+		if(! this.adaptive || this.windowSegments < 2 * this.activeWorkers || elapsed < MINIMUM_WINDOW) {
+			return;
+		}
+		double throughput = (double) this.windowNumbers / elapsed;
+		int previous = this.activeWorkers;
+		adjust(throughput);
+		if(this.activeWorkers != previous) {
+			this.adjustments++;
+			this.peakWorkers = Math.max(this.peakWorkers, this.activeWorkers);
+			notifyAll();
+		}
+		this.windowStart = System.nanoTime();
+		this.windowNumbers = 0;
+		this.windowSegments = 0;
+	} // End of recordSegment
+
+	/**
+	 * Hill climbs the number of active workers on the throughput of the last window.
+	 * @param throughput The numbers sieved per nanosecond in the last window
+	 */
+	private void adjust(double throughput) {
+		switch(this.phase) {
+			case GROW :
+			case SHRINK : if(this.bestWorkers == 0 || throughput > this.bestThroughput * IMPROVEMENT) {
+					this.bestThroughput = throughput;
+					this.bestWorkers = this.activeWorkers;
+					int next = this.activeWorkers + (this.phase == Phase.GROW ? 1 : -1);
+					if(next >= 1 && next <= this.maxWorkers) {
+						this.activeWorkers = next;
+						break;
+					}
+				}
+				// The last step didn't help, go back to the best number of workers
+				this.activeWorkers = this.bestWorkers;
+				this.phase = Phase.SETTLED;
+				this.settledWindows = 0;
+				break;
+			case SETTLED : this.settledWindows++;
+				if(throughput < this.bestThroughput * DEGRADATION && this.activeWorkers > 1) {
+					// The machine became busier, see if fewer workers do better
+					this.phase = Phase.SHRINK;
+					this.bestThroughput = throughput;
+					this.bestWorkers = this.activeWorkers;
+					this.activeWorkers--;
+				}
+				else if(this.settledWindows >= PROBE_INTERVAL && this.activeWorkers < this.maxWorkers) {
+					// See if another worker helps now
+					this.phase = Phase.GROW;
+					this.bestThroughput = throughput;
+					this.bestWorkers = this.activeWorkers;
+					this.activeWorkers++;
+				}
+				break;
+		}
+	} // End of adjust
+
+	/**
+	 * @return A snapshot of the segments finished so far
+	 */
+	public synchronized SieveProgress getProgress() {
+		return new SieveProgress(this.segmentsDone, this.totalSegments, this.numbersCovered, this.totalNumbers,
+				this.primesFound, System.currentTimeMillis() - this.startTime);
+	} // End of getProgress
+	
+	/**
+	 * @return True if the token was cancelled, the run may still have finished every segment before it noticed
+	 */
+	public boolean isCancelled() {
+		return this.cancellation != null && this.cancellation.isCancelled();
+	}
+	
+	public void setCancellationToken(CancellationToken cancellation) {
+		this.cancellation = cancellation;
+	}
+	
+	public void setProgressListener(SieveProgress.Listener listener) {
+		this.listener = listener;
+	}
+	
+	public boolean isAdaptive() {
+		return this.adaptive;
+	}
+
+	public int getMaxWorkers() {
+		return this.maxWorkers;
+	}
+
+	public int getActiveWorkers() {
+		return this.activeWorkers;
+	}
+
+	public int getPeakWorkers() {
+		return this.peakWorkers;
+	}
+
+	public int getAdjustments() {
+		return this.adjustments;
+	}
+
+} // End of SegmentScheduler
@@ -0,0 +1,345 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * @author Josh Morgan
+ * A Segment Store is a folder of prime files that sieves can reuse instead of sieving the same range again.
+ * The folder holds an index of the ranges it has, one "lowerBound upperBound bytes lastUsed owner" line per range,
+ * and a file of the form "Primes [lowerBound,upperBound).txt" for each of them. Prime files already in the folder,
+ * such as the output of an IterativePLS, are added to the index when the store is opened so they can be read,
+ * but they are marked as adopted rather than owned and are never deleted.
+ * A sieve asks the store to plan its range, reads the stored parts, sieves only the gaps and adds them back.
+ * The least recently used ranges the store wrote itself are deleted once they are larger than its limit, or the
+ * disk it is on is close to full. Nothing is deleted when the store is opened.
+ */
+public class SegmentStore {
+	private static final String INDEX_FILE = "Index.txt";
+	private static final Pattern PRIME_FILE = Pattern.compile("Primes \\[(\\d+),(\\d+)\\)\\.txt");
+	// The fraction of the disk that is kept free, deleting ranges if needed
+	private static final double MINIMUM_FREE_SPACE = 0.05;
+	// Gaps smaller than this are sieved again rather than stored, so small requests don't fragment the index
+	private static final long MINIMUM_RANGE = 1 << 16;
+
+	private File folder;
+	private long maxBytes;
+	// The stored ranges keyed by their lower bounds, they never overlap
+	private TreeMap<Long, Segment> segments;
+	// The bytes of the ranges the store wrote itself, the only ones counted against the limit
+	private long totalBytes;
+	private long evictions;
+
+	/**
+	 * A range of numbers, either stored in a file or a gap that has to be sieved.
+	 */
+	public static class Segment {
+		private long lowerBound;
+		private long upperBound;
+		private long bytes;
+		private long lastUsed;
+		private boolean stored;
+		// True if the store wrote the file, false if it was already in the folder and must be left alone
+		private boolean owned;
+
+		Segment(long lowerBound, long upperBound, long bytes, long lastUsed, boolean stored){
+			this.lowerBound = lowerBound;
+			this.upperBound = upperBound;
+			this.bytes = bytes;
+			this.lastUsed = lastUsed;
+			this.stored = stored;
+		} // End of Constructor
+
+		public long getLowerBound() {
+			return this.lowerBound;
+		}
+
+		public long getUpperBound() {
+			return this.upperBound;
+		}
+
+		/**
+		 * @return True if the primes of this range can be read from the store, false if it is a gap
+		 */
+		public boolean isStored() {
+			return this.stored;
+		}
+
+		public String getFileName() {
+			return "Primes [" + this.lowerBound + "," + this.upperBound + ").txt";
+		}
+	} // End of Segment
+
+	/**
+	 * Opens the store in the folder, creating the folder if it doesn't exist yet.
+	 * @param folder The folder of the store
+	 * @param maxBytes The largest size of the files the store writes before the least recently used ones are deleted
+	 * @throws IOException If the folder could not be created or its index could not be read
+	 */
+	SegmentStore(String folder, long maxBytes) throws IOException {
+		this.folder = new File(folder);
+		this.maxBytes = maxBytes;
+		this.segments = new TreeMap<Long, Segment>();
+		Files.createDirectories(this.folder.toPath());
+		readIndex();
+		importFiles();
+		// Nothing is evicted here, only once the store adds a range of its own
+		writeIndex();
+	} // End of Constructor
+
+	/**
+	 * Reads the index, dropping any range whose file has since been deleted. A line without an owner is from
+	 * before ownership was recorded, when adopted files were indexed the same way, so it is treated as adopted.
+	 */
+	private void readIndex() throws IOException {
+		Path index = new File(this.folder, INDEX_FILE).toPath();
+		if(! Files.exists(index)) {
+			return;
+		}
+		for(String line : Files.readAllLines(index)) {
+			String[] fields = line.trim().split(" ");
+			if(fields.length < 4) {
+				continue;
+			}
+			try {
+				Segment segment = new Segment(Long.parseLong(fields[0]), Long.parseLong(fields[1]),
+						Long.parseLong(fields[2]), Long.parseLong(fields[3]), true);
+				segment.owned = fields.length > 4 && fields[4].equals("owned");
+				if(new File(this.folder, segment.getFileName()).exists() && ! overlaps(segment)) {
+					add(segment);
+				}
+			}
+			catch(NumberFormatException e) {
+				System.out.println("Skipping an unreadable line of the segment index: " + line);
+			}
+		}
+	} // End of readIndex
+
+	/**
+	 * Adopts any prime file in the folder that isn't in the index yet and doesn't overlap a stored range.
+	 * Adopted files are read like any other range but are never deleted by the store.
+	 */
+	private void importFiles() {
+		File[] files = this.folder.listFiles();
+		if(files == null) {
+			return;
+		}
+		for(File file : files) {
+			Matcher matcher = PRIME_FILE.matcher(file.getName());
+			if(! matcher.matches()) {
+				continue;
+			}
+			try {
+				Segment segment = new Segment(Long.parseLong(matcher.group(1)), Long.parseLong(matcher.group(2)),
+						file.length(), file.lastModified(), true);
+				if(segment.lowerBound < segment.upperBound && ! this.segments.containsKey(segment.lowerBound)
+						&& ! overlaps(segment)) {
+					add(segment);
+				}
+			}
+			catch(NumberFormatException e) {
+				// Bounds too large for a long, not a file a sieve could have written
+			}
+		}
+	} // End of importFiles
+
+	/**
+	 * Writes the index to a temporary file and moves it over the old one, so it is never left half written.
+	 */
+	private void writeIndex() throws IOException {
+		File temporary = new File(this.folder, INDEX_FILE + ".tmp");
+		try(PrintWriter writer = new PrintWriter(temporary)) {
+			for(Segment segment : this.segments.values()) {
+				writer.println(segment.lowerBound + " " + segment.upperBound + " " + segment.bytes + " "
+						+ segment.lastUsed + " " + (segment.owned ? "owned" : "adopted"));
+			}
+		}
+		Files.move(temporary.toPath(), new File(this.folder, INDEX_FILE).toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+	} // End of writeIndex
+
+	/**
+	 * Splits a range into the parts that are stored and the gaps between them.
+	 * @param lowerBound The lower bound of the range (inclusive)
+	 * @param upperBound The upper bound of the range (exclusive)
+	 * @return The parts of the range in order, the stored parts clipped to the range
+	 */
+	public synchronized ArrayList<Segment> plan(long lowerBound, long upperBound) {
+		ArrayList<Segment> plan = new ArrayList<Segment>();
+		if(lowerBound >= upperBound) {
+			return plan;
+		}
+		long position = lowerBound;
+		// Start from the range that may reach into the lower bound
+		Long first = this.segments.floorKey(lowerBound);
+		Map<Long, Segment> candidates = this.segments.subMap(first == null ? lowerBound : first, true,
+				upperBound, false);
+		for(Segment segment : candidates.values()) {
+			if(segment.upperBound <= position) {
+				continue;
+			}
+			if(segment.lowerBound > position) {
+				plan.add(new Segment(position, segment.lowerBound, 0, 0, false));
+			}
+			long end = Math.min(upperBound, segment.upperBound);
+			plan.add(new Segment(Math.max(position, segment.lowerBound), end, 0, 0, true));
+			position = end;
+		}
+		if(position < upperBound) {
+			plan.add(new Segment(position, upperBound, 0, 0, false));
+		}
+		return plan;
+	} // End of plan
+
+	/**
+	 * @param part A stored part of a plan
+	 * @return The primes of the part
+	 * @throws IOException If the part is no longer stored or its file could not be read
+	 */
+	public ArrayList<Long> read(Segment part) throws IOException {
+		File file;
+		synchronized(this) {
+			Map.Entry<Long, Segment> entry = this.segments.floorEntry(part.lowerBound);
+			if(entry == null || entry.getValue().upperBound < part.upperBound) {
+				throw new IOException("[" + part.lowerBound + "," + part.upperBound + ") is no longer stored");
+			}
+			Segment segment = entry.getValue();
+			segment.lastUsed = System.currentTimeMillis();
+			file = new File(this.folder, segment.getFileName());
+		}
+		return PrimeEngine.toList(PrimeFileReader.readPrimes(file.getPath(), part.lowerBound, part.upperBound));
+	} // End of read
+
+	/**
+	 * Writes a sieved gap to the store and deletes the least recently used ranges if the store is now too large.
+	 * @param lowerBound The lower bound of the gap (inclusive)
+	 * @param upperBound The upper bound of the gap (exclusive)
+	 * @param partials The primes of the gap, in order
+	 * @param threads The number of threads formatting the primes
+	 * @return True if the gap was stored, false if it is too small, overlaps a stored range or is larger than
+	 * the whole store
+	 */
+	public synchronized boolean store(long lowerBound, long upperBound, List<? extends List<Long>> partials,
+			int threads) {
+		Segment segment = new Segment(lowerBound, upperBound, 0, System.currentTimeMillis(), true);
+		segment.owned = true;
+		if(upperBound - lowerBound < MINIMUM_RANGE || overlaps(segment)) {
+			return false;
+		}
+		File file = new File(this.folder, segment.getFileName());
+		try {
+			PrimeFileWriter.writePartials(file.getPath(), partials, threads);
+			segment.bytes = file.length();
+			if(segment.bytes > this.maxBytes) {
+				Files.delete(file.toPath());
+				return false;
+			}
+			add(segment);
+			evict(segment);
+			writeIndex();
+			return true;
+		}
+		catch(IOException e) {
+			System.out.println("Could not add [" + lowerBound + "," + upperBound + ") to the segment store");
+			e.printStackTrace();
+			file.delete();
+			return false;
+		}
+	} // End of store
+
+	/**
+	 * Deletes the least recently used ranges the store wrote itself until they fit in its limit and the disk has
+	 * enough free space. Adopted files are never deleted, so once the store's own files are gone it stops even if
+	 * the disk is still close to full.
+	 * @param keep A range that is never deleted, or null
+	 */
+	private void evict(Segment keep) {
+		while(this.totalBytes > this.maxBytes || isDiskFull()) {
+			Segment oldest = null;
+			for(Segment segment : this.segments.values()) {
+				if(segment.owned && segment != keep && (oldest == null || segment.lastUsed < oldest.lastUsed)) {
+					oldest = segment;
+				}
+			}
+			if(oldest == null) {
+				return;
+			}
+			this.segments.remove(oldest.lowerBound);
+			this.totalBytes -= oldest.bytes;
+			this.evictions++;
+			new File(this.folder, oldest.getFileName()).delete();
+		}
+	} // End of evict
+
+	/**
+	 * @return True if less than MINIMUM_FREE_SPACE of the disk holding the store is free
+	 */
+	private boolean isDiskFull() {
+		long total = this.folder.getTotalSpace();
+		return total > 0 && this.folder.getUsableSpace() < total * MINIMUM_FREE_SPACE;
+	} // End of isDiskFull
+
+	private void add(Segment segment) {
+		this.segments.put(segment.lowerBound, segment);
+		if(segment.owned) {
+			this.totalBytes += segment.bytes;
+		}
+	}
+
+	/**
+	 * @return True if the segment overlaps any stored range
+	 */
+	private boolean overlaps(Segment segment) {
+		Map.Entry<Long, Segment> before = this.segments.floorEntry(segment.lowerBound);
+		if(before != null && before.getValue().upperBound > segment.lowerBound) {
+			return true;
+		}
+		Long after = this.segments.higherKey(segment.lowerBound);
+		return after != null && after < segment.upperBound;
+	} // End of overlaps
+
+	/**
+	 * @return The numbers of the range that are stored
+	 */
+	public synchronized long getStoredNumbers(long lowerBound, long upperBound) {
+		long stored = 0;
+		for(Segment part : plan(lowerBound, upperBound)) {
+			if(part.isStored()) {
+				stored += part.upperBound - part.lowerBound;
+			}
+		}
+		return stored;
+	} // End of getStoredNumbers
+
+	public String getFolder() {
+		return this.folder.getPath();
+	}
+
+	public long getMaxBytes() {
+		return this.maxBytes;
+	}
+
+	/**
+	 * @return The bytes of the ranges the store wrote itself, not counting adopted files
+	 */
+	public synchronized long getTotalBytes() {
+		return this.totalBytes;
+	}
+
+	public synchronized int getSegmentCount() {
+		return this.segments.size();
+	}
+
+	public synchronized long getEvictions() {
+		return this.evictions;
+	}
+
+} // End of SegmentStore
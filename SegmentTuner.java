@@ -0,0 +1,156 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * @author Josh Morgan
+ * The Segment Tuner picks the size of the segments each thread sieves, so the flags of a segment stay in the
+ * cache while every prime factor crosses off its multiples in it.
+ * On Linux the size comes from the caches of the first CPU in /sys/devices/system/cpu/cpu0/cache: half of the
+ * share of the L2 cache of a single thread, or of the L1 data cache if there is no L2. Half leaves room for the
+ * prime factors and their next multiples, which are streamed through the cache alongside the flags.
+ * Anywhere else it falls back to a short calibration sweep that times a fixed range with each size.
+ * The size is picked once per JVM, a sieve can override it with setSegmentSize.
+ */
+public class SegmentTuner {
+	private static final String CACHE_FOLDER = "/sys/devices/system/cpu/cpu0/cache";
+	// The range of sizes that are picked from, in bytes of flags
+	public static final int MINIMUM_SEGMENT_SIZE = 1 << 13;
+	public static final int MAXIMUM_SEGMENT_SIZE = 1 << 22;
+	// The range timed for each size by the calibration sweep
+	private static final long CALIBRATION_LOWER_BOUND = 1_000_000_000_000L;
+	private static final long CALIBRATION_SIZE = 1 << 22;
+
+	private static int segmentSize;
+	private static String source;
+
+	/**
+	 * @return The number of bytes of flags in a segment, one flag per odd number for the Sieve of Eratosthenes
+	 * and one per number for the Sieve of Atkin
+	 */
+	public static synchronized int getSegmentSize() {
+		if(segmentSize == 0) {
+			tune();
+		}
+		return segmentSize;
+	} // End of getSegmentSize
+
+	/**
+	 * @return How the segment size was picked, for printInfo
+	 */
+	public static synchronized String getSource() {
+		if(segmentSize == 0) {
+			tune();
+		}
+		return source;
+	} // End of getSource
+
+	private static void tune() {
+		long cache = readCacheSize(2);
+		String level = "L2";
+		if(cache <= 0) {
+			cache = readCacheSize(1);
+			level = "L1 data";
+		}
+		if(cache > 0) {
+			segmentSize = clamp(Long.highestOneBit(cache / 2));
+			source = "half of the " + (cache >> 10) + " KB per thread of the " + level + " cache";
+		}
+		else {
+			segmentSize = calibrate();
+			source = "a calibration sweep";
+		}
+	} // End of tune
+
+	/**
+	 * @param level The level of the cache, instruction caches are skipped
+	 * @return The size of the cache divided by the number of CPUs sharing it, or -1 if it couldn't be read
+	 */
+	static long readCacheSize(int level) {
+		for(int index = 0; ; index++) {
+			Path folder = Paths.get(CACHE_FOLDER, "index" + index);
+			if(! Files.isDirectory(folder)) {
+				return -1;
+			}
+			try {
+				if(Integer.parseInt(read(folder.resolve("level"))) != level
+						|| read(folder.resolve("type")).equals("Instruction")) {
+					continue;
+				}
+				return parseSize(read(folder.resolve("size"))) / countCpus(read(folder.resolve("shared_cpu_list")));
+			}
+			catch(IOException | RuntimeException e) {
+				// An unreadable or unexpected cache entry is treated as missing
+				return -1;
+			}
+		}
+	} // End of readCacheSize
+
+	private static String read(Path path) throws IOException {
+		return Files.readAllLines(path).get(0).trim();
+	} // End of read
+
+	/**
+	 * @param size A size such as "48K", "2048K" or "1M"
+	 * @return The size in bytes
+	 */
+	private static long parseSize(String size) {
+		char unit = Character.toUpperCase(size.charAt(size.length() - 1));
+		if(Character.isDigit(unit)) {
+			return Long.parseLong(size);
+		}
+		long value = Long.parseLong(size.substring(0, size.length() - 1));
+		switch(unit) {
+			case 'K' : return value << 10;
+			case 'M' : return value << 20;
+			case 'G' : return value << 30;
+			default : throw new NumberFormatException("Unknown unit in " + size);
+		}
+	} // End of parseSize
+
+	/**
+	 * @param list A list of CPUs such as "0-3,8-11" or "5"
+	 * @return The number of CPUs in the list, at least 1
+	 */
+	private static int countCpus(String list) {
+		int count = 0;
+		for(String part : list.split(",")) {
+			if(part.isEmpty()) {
+				continue;
+			}
+			String[] range = part.split("-");
+			count += range.length == 1 ? 1 : Integer.parseInt(range[1]) - Integer.parseInt(range[0]) + 1;
+		}
+		return Math.max(1, count);
+	} // End of countCpus
+
+	/**
+	 * Times the same range with every power of two between the smallest and largest size.
+	 * @return The fastest size
+	 */
+	static int calibrate() {
+		long[] primeFactors = PrimeEngine.primeFactors((long) Math.sqrt(CALIBRATION_LOWER_BOUND + CALIBRATION_SIZE) + 1);
+		int fastest = PrimeEngine.DEFAULT_SEGMENT_SIZE;
+		long fastestTime = Long.MAX_VALUE;
+		for(int size = MINIMUM_SEGMENT_SIZE; size <= MAXIMUM_SEGMENT_SIZE; size <<= 1) {
+			// The best of two runs, so the first size isn't slowed down by the JIT
+			for(int i = 0; i < 2; i++) {
+				long start = System.nanoTime();
+				PrimeEngine.primesBetween(CALIBRATION_LOWER_BOUND, CALIBRATION_LOWER_BOUND + CALIBRATION_SIZE,
+						primeFactors, size);
+				long time = System.nanoTime() - start;
+				if(time < fastestTime) {
+					fastestTime = time;
+					fastest = size;
+				}
+			}
+		}
+		return fastest;
+	} // End of calibrate
+
+	private static int clamp(long size) {
+		return (int) Math.max(MINIMUM_SEGMENT_SIZE, Math.min(MAXIMUM_SEGMENT_SIZE, size));
+	} // End of clamp
+
+} // End of SegmentTuner
@@ -1,9 +1,5 @@
-import java.io.BufferedWriter;
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Scanner;
 import java.util.concurrent.Callable;
 /**
  * @author Josh Morgan
@@ -11,6 +7,7 @@ import java.util.concurrent.Callable;
  * The optimizations for this algorithm are:
  *     Using only the primes less than or equal to the square root of the upper bound to factor numbers.
  *     Searching only the odd numbers up to the upper bound (excluding 2)
+ *     Sieving in cache sized segments with int arithmetic, see PrimeEngine
  * Using integers, this can get all the primes below 2,147,483,647.
  */
 public class Sieve implements Callable<ArrayList<Integer>>{
@@ -49,111 +46,59 @@ public class Sieve implements Callable<ArrayList<Integer>>{
 	
 	/**
 	 * This method implements a prime number sieve which uses known primes 
-	 * below the square root of the specified upper bound to factor new potential ones.
+	 * below the square root of the specified upper bound to cross off their multiples,
+	 * one cache sized segment at a time in PrimeEngine. Every value fits in an int, so it always takes
+	 * the 32 bit path of the engine.
 	 */
 	private void generatePrimes(){
 		this.primes = new ArrayList<Integer>();
 		if(this.upperBound <= 2 || this.lowerBound >= this.upperBound){
 			return;
 		}
-		if(this.lowerBound <= 2){
-			this.primes.add(2);
-			this.primeFactors = new ArrayList<Integer>();
-			this.primeFactors.add(2);
-			for(int i = 3; i < this.upperBound; i+=2){
-				boolean isPrime = true;
-				// Search through all the primes until one greater than the factor limit has been found
-				for(int prime : this.primeFactors) {
-					if(i % prime == 0 && i != prime) {
-						isPrime = false;
-						break;
-						// Stop the loop at the first complete factor
-					}
-				}
-				if(isPrime){
-					this.primes.add(i);
-					if(i <= this.factorLimit) {
-						this.primeFactors.add(i);
-						// It will be needed to factor future numbers
-					}
-				}
+		long[] factors = getRequiredPrimes();
+		if(this.primeFactors == null) {
+			this.primeFactors = new ArrayList<Integer>(factors.length);
+			for(long factor : factors) {
+				this.primeFactors.add((int) factor);
 			}
 		}
-		else{
-			// All primes below the factor limit are needed to factor numbers between lower and upper bound
-			this.primeFactors = getRequiredPrimes();
-			
-			int newLowerBound = this.lowerBound;
-			if(newLowerBound % 2 == 0) {
-				newLowerBound++;
-				// This ensures if an even lower bound was given, the search will start at the next odd number
-			}	
-			for(int i = newLowerBound; i < this.upperBound; i+=2){
-				boolean isPrime = true;
-				for(int prime : this.primeFactors) {
-					if(i % prime == 0 && i != prime) {
-						isPrime = false;
-						break;
-					}
-				}
-				if(isPrime){
-					this.primes.add(i);
-				}
-			}
+		long[] found = PrimeEngine.primesBetween(this.lowerBound, this.upperBound, factors);
+		this.primes = new ArrayList<Integer>(found.length);
+		for(long prime : found) {
+			this.primes.add((int) prime);
 		}
 	} // End of generatePrimes
 	
 	/**
 	 * This is a helper method for generatePrimes which gets the primes below the factor limit.
 	 * It will try to load the specified file containing them if given, or it will manually generate them.
-	 * @return An ArrayList of the primes below the factor limit of this sieve
+	 * @return An array of the primes below the factor limit of this sieve
 	 */
-	private ArrayList<Integer> getRequiredPrimes(){	
+	private long[] getRequiredPrimes(){	
 		if(this.inputFile != null){
 			// Try to load the previous primes from the provided file
 			try{
-				File primeFile = new File(this.inputFile);
-				Scanner fileScanner = new Scanner(primeFile);
-				ArrayList<Integer> previousPrimes = new ArrayList<Integer>();
-				
-				while(fileScanner.hasNextLine()){
-					Integer previousPrime = Integer.parseInt(fileScanner.nextLine());
-					previousPrimes.add(previousPrime);
-					if(previousPrime > this.factorLimit) {
-						// All the primes needed to factor numbers below the upperbound have been added
-						break;
-					}
-				}
-				
-				int lastPrimeInFile = previousPrimes.get(previousPrimes.size() - 1);
-				if(lastPrimeInFile < this.factorLimit) {
-					Sieve intermediateSieve = new Sieve(lastPrimeInFile + 2, this.factorLimit + 1, null);
-					intermediateSieve.generatePrimes();
-					// Generate the primes between the last prime in the file and the factor limit
-					for(int i : intermediateSieve.getPrimes()) {
-						previousPrimes.add(i);
-					}
+				long[] previousPrimes = PrimeFileReader.readPrimes(this.inputFile, this.factorLimit);
+				if(previousPrimes.length == 0) {
+					throw new IOException("The file has no primes in it");
 				}
-				return previousPrimes;
+				// Generate the primes between the last prime in the file and the factor limit
+				return PrimeEngine.extend(previousPrimes, this.factorLimit);
 			}
 			catch (IOException e){
-				System.out.println("Could not load file, generating primes below: " + this.lowerBound);
-				Sieve lowerSieve = new Sieve(this.factorLimit);
-				lowerSieve.generatePrimes();
-				return lowerSieve.getPrimes();
+				System.out.println("Could not load file, generating primes below: " + this.factorLimit);
+				return PrimeEngine.primeFactors(this.factorLimit);
 			}
 		}
 		else if(this.primeFactors != null) {
 			// The prime factors have been provided from setPrimeFactors
-			return this.primeFactors;
+			return PrimeEngine.toArray(this.primeFactors);
 		}
 		else {
 			// No file provided, manually calculate the previous primes
-			Sieve lowerSieve = new Sieve(this.factorLimit);
-			lowerSieve.generatePrimes();
-			return lowerSieve.getPrimes();
+			return PrimeEngine.primeFactors(this.factorLimit);
 		}
-	} // End of getPreviousPrimes
+	} // End of getRequiredPrimes
 	
 	/**
 	 * This method will write the primes in the sieve.
@@ -164,13 +109,11 @@ public class Sieve implements Callable<ArrayList<Integer>>{
 	public String writePrimes() {
 		try {
 			String fileName = "Primes [" + this.lowerBound + "," + this.upperBound + ").txt";
-			File outputFile = new File(fileName);
-			BufferedWriter outputWriter = new BufferedWriter(new FileWriter(outputFile));
-			for(int i : this.primes) {
-				outputWriter.write(String.valueOf(i));
-				outputWriter.newLine();
+			try(PrimeFileWriter outputWriter = new PrimeFileWriter(fileName)) {
+				for(int i : this.primes) {
+					outputWriter.write(i);
+				}
 			}
-			outputWriter.close();
 			this.outputFile = fileName;
 			// Assigns the value only if there were no errors writing
 			return fileName;
@@ -228,7 +171,11 @@ public class Sieve implements Callable<ArrayList<Integer>>{
 	 */
 	public ArrayList<Integer> getPrimeFactors(){
 		if(this.primeFactors == null) {
-			this.primeFactors = getRequiredPrimes();
+			long[] factors = getRequiredPrimes();
+			this.primeFactors = new ArrayList<Integer>(factors.length);
+			for(long factor : factors) {
+				this.primeFactors.add((int) factor);
+			}
 		}
 		return this.primeFactors;
 	}
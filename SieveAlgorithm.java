@@ -0,0 +1,55 @@
+/**
+ * @author Josh Morgan
+ * A strategy for finding the primes in a range, which LongSieve and ParallelLongSieve dispatch through.
+ * Every algorithm is given the primes up to the square root of the upper bound, so the prime factors can be
+ * loaded or generated once and shared between the partitions of a sieve.
+ */
+public interface SieveAlgorithm {
+	// The segmented Sieve of Eratosthenes in PrimeEngine
+	SieveAlgorithm ERATOSTHENES = new EratosthenesAlgorithm();
+	// The segmented Sieve of Atkin
+	SieveAlgorithm ATKIN = new AtkinAlgorithm();
+	// Picks one of the above for each range, from its size, its offset and a calibration run
+	SieveAlgorithm AUTO = new AutoSieveAlgorithm(ERATOSTHENES, ATKIN);
+	
+	/**
+	 * @param lowerBound The lower bound of the range (inclusive)
+	 * @param upperBound The upper bound of the range (exclusive)
+	 * @param primeFactors The primes up to at least the square root of the upper bound, in increasing order
+	 * @return The primes in the range, in increasing order
+	 */
+	default long[] primesBetween(long lowerBound, long upperBound, long[] primeFactors) {
+		return primesBetween(lowerBound, upperBound, primeFactors, SegmentTuner.getSegmentSize());
+	} // End of primesBetween
+	
+	/**
+	 * @param lowerBound The lower bound of the range (inclusive)
+	 * @param upperBound The upper bound of the range (exclusive)
+	 * @param primeFactors The primes up to at least the square root of the upper bound, in increasing order
+	 * @param segmentSize The number of bytes of flags sieved at a time
+	 * @return The primes in the range, in increasing order
+	 */
+	long[] primesBetween(long lowerBound, long upperBound, long[] primeFactors, int segmentSize);
+	
+	/**
+	 * @return The name of the algorithm, as accepted by forName
+	 */
+	String getName();
+	
+	/**
+	 * @param name One of "eratosthenes", "atkin" or "auto", ignoring case, or a progression such as "1mod4"
+	 * @return The matching algorithm, or null if there isn't one
+	 */
+	static SieveAlgorithm forName(String name) {
+		if(name.toLowerCase().contains("mod")) {
+			return ProgressionAlgorithm.parse(name);
+		}
+		for(SieveAlgorithm algorithm : new SieveAlgorithm[] {ERATOSTHENES, ATKIN, AUTO}) {
+			if(algorithm.getName().equalsIgnoreCase(name)) {
+				return algorithm;
+			}
+		}
+		return null;
+	} // End of forName
+	
+} // End of SieveAlgorithm
@@ -0,0 +1,392 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Josh Morgan
+ * A Sieve Coordinator splits the numbers from lowerBound to upperBound into leases of leaseSize numbers and hands
+ * them out to SieveWorkers over a line based socket protocol. Each line is a command followed by its arguments:
+ *     HELLO name                           -> WELCOME leaseTimeout
+ *     REQUEST                              -> LEASE id lowerBound upperBound, WAIT millis or DONE
+ *     RENEW id                             -> OK or LOST
+ *     RESULT id primes checksum file       -> OK or STALE
+ * A lease is given back to the queue if its worker disconnects or doesn't renew it within leaseTimeout milliseconds.
+ * Once every lease has a result, a manifest of the ranges is written to the output folder.
+ */
+public class SieveCoordinator implements Callable<String>{
+	private int port;
+	private long lowerBound;
+	private long upperBound;
+	private long leaseSize;
+	private long leaseTimeout;
+	private String outputFolder;
+	private ArrayDeque<Lease> pending;
+	private HashMap<Integer, Lease> leased;
+	private TreeMap<Long, Lease> completed;
+	private int totalLeases;
+	private int reassignedLeases;
+	private CountDownLatch finished;
+	private ServerSocket server;
+	private ArrayList<Socket> connections;
+	private String manifestFile;
+	private long executionTime;
+
+	/**
+	 * A range of numbers handed out to a single worker.
+	 */
+	static class Lease {
+		int id;
+		long lowerBound;
+		long upperBound;
+		String worker;
+		int assignment;
+		long deadline;
+		long primes;
+		long checksum;
+		String file;
+
+		Lease(int id, long lowerBound, long upperBound){
+			this.id = id;
+			this.lowerBound = lowerBound;
+			this.upperBound = upperBound;
+		}
+	} // End of Lease
+
+	/**
+	 * @param port The port to listen on for workers
+	 * @param lowerBound The lower bound of the search space (inclusive)
+	 * @param upperBound The upper bound of the search space (exclusive)
+	 * @param leaseSize The amount of numbers handed to a worker at a time, positive
+	 * @param leaseTimeout The milliseconds a worker may go without renewing a lease before it is reassigned, positive
+	 * @param outputFolder The folder the manifest will be written to
+	 */
+	SieveCoordinator(int port, long lowerBound, long upperBound, long leaseSize, long leaseTimeout, String outputFolder){
+		this.port = port;
+		this.lowerBound = lowerBound;
+		this.upperBound = upperBound;
+		this.leaseSize = leaseSize;
+		this.leaseTimeout = leaseTimeout;
+		this.outputFolder = outputFolder;
+		this.pending = new ArrayDeque<Lease>();
+		this.leased = new HashMap<Integer, Lease>();
+		this.completed = new TreeMap<Long, Lease>();
+		this.connections = new ArrayList<Socket>();
+		partitionLeases();
+	} // End of Constructor
+
+	/**
+	 * Splits the search space into leases of leaseSize, the final lease may be smaller.
+	 */
+	private void partitionLeases() {
+		int id = 0;
+		for(long lower = this.lowerBound; lower < this.upperBound; lower += this.leaseSize) {
+			// Compared as a distance, lower + leaseSize can overflow near the largest long
+			long upper = this.upperBound - lower <= this.leaseSize ? this.upperBound : lower + this.leaseSize;
+			this.pending.add(new Lease(id++, lower, upper));
+			if(upper == this.upperBound) {
+				break;
+			}
+		}
+		this.totalLeases = id;
+		this.finished = new CountDownLatch(this.totalLeases == 0 ? 0 : 1);
+	} // End of partitionLeases
+
+	/**
+	 * Accepts workers until every lease has a result, then writes the manifest.
+	 */
+	private void coordinate() throws IOException, InterruptedException {
+		ExecutorService EXEC = Executors.newCachedThreadPool();
+		ScheduledExecutorService reaper = Executors.newSingleThreadScheduledExecutor();
+		this.server = new ServerSocket(this.port);
+		System.out.println("Coordinating " + this.totalLeases + " lease(s) on port " + this.server.getLocalPort());
+		try {
+			EXEC.submit(() -> {
+				while(! this.server.isClosed()) {
+					try {
+						Socket socket = this.server.accept();
+						synchronized(this) {
+							this.connections.add(socket);
+						}
+						EXEC.submit(() -> handleWorker(socket));
+					}
+					catch(IOException e) {
+						// The server socket was closed once every lease finished
+					}
+				}
+			});
+			long period = Math.max(1, this.leaseTimeout / 4);
+			reaper.scheduleAtFixedRate(this::reapExpiredLeases, period, period, TimeUnit.MILLISECONDS);
+			this.finished.await();
+			this.manifestFile = writeManifest();
+		}
+		finally {
+			reaper.shutdownNow();
+			this.server.close();
+			synchronized(this) {
+				for(Socket socket : this.connections) {
+					try {
+						socket.close();
+					}
+					catch(IOException e) {
+						// Already closed by the worker
+					}
+				}
+			}
+			EXEC.shutdownNow();
+		}
+	} // End of coordinate
+
+	/**
+	 * Answers the commands of a single worker until it disconnects, then returns any of its unfinished leases.
+	 * @param socket The connection to the worker
+	 */
+	private void handleWorker(Socket socket) {
+		// The assignment of each lease held by this worker, a reassigned lease will have moved on to a newer one
+		HashMap<Integer, Integer> held = new HashMap<Integer, Integer>();
+		String worker = socket.getRemoteSocketAddress().toString();
+		try(BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+				PrintWriter out = new PrintWriter(socket.getOutputStream(), true)) {
+			String line;
+			while((line = in.readLine()) != null) {
+				String[] command = line.trim().split(" ", 5);
+				switch(command[0]) {
+					case "HELLO" : worker = command.length > 1 ? command[1] : worker;
+						out.println("WELCOME " + this.leaseTimeout);
+						break;
+					case "REQUEST" : out.println(assignLease(worker, held));
+						break;
+					case "RENEW" : out.println(renewLease(Integer.parseInt(command[1]), held) ? "OK" : "LOST");
+						break;
+					case "RESULT" : int id = Integer.parseInt(command[1]);
+						held.remove(id);
+						boolean accepted = completeLease(id, Long.parseLong(command[2]), Long.parseLong(command[3]),
+								command.length > 4 ? command[4] : "-");
+						out.println(accepted ? "OK" : "STALE");
+						break;
+					default : out.println("ERROR unknown command " + command[0]);
+				}
+			}
+		}
+		catch(IOException | RuntimeException e) {
+			// Treated the same as a clean disconnect
+		}
+		finally {
+			releaseLeases(worker, held);
+		}
+	} // End of handleWorker
+
+	/**
+	 * @return The reply to a REQUEST command
+	 */
+	private synchronized String assignLease(String worker, HashMap<Integer, Integer> held) {
+		if(this.completed.size() == this.totalLeases) {
+			return "DONE";
+		}
+		Lease lease = this.pending.poll();
+		if(lease == null) {
+			// Every lease is out, wait in case one of them has to be reassigned
+			return "WAIT " + Math.max(1, this.leaseTimeout / 4);
+		}
+		lease.worker = worker;
+		lease.assignment++;
+		lease.deadline = System.currentTimeMillis() + this.leaseTimeout;
+		this.leased.put(lease.id, lease);
+		held.put(lease.id, lease.assignment);
+		return "LEASE " + lease.id + " " + lease.lowerBound + " " + lease.upperBound;
+	} // End of assignLease
+
+	/**
+	 * @return True if the lease is still held by this worker and its deadline was extended
+	 */
+	private synchronized boolean renewLease(int id, HashMap<Integer, Integer> held) {
+		Lease lease = this.leased.get(id);
+		if(lease == null || ! held.containsKey(id) || held.get(id) != lease.assignment) {
+			return false;
+		}
+		lease.deadline = System.currentTimeMillis() + this.leaseTimeout;
+		return true;
+	} // End of renewLease
+
+	/**
+	 * Records the result of a lease, the first result for a range is kept even if the lease had been reassigned.
+	 * @return False if the range already had a result
+	 */
+	private synchronized boolean completeLease(int id, long primes, long checksum, String file) {
+		Lease lease = this.leased.remove(id);
+		if(lease == null) {
+			for(Iterator<Lease> iterator = this.pending.iterator(); iterator.hasNext();) {
+				Lease queued = iterator.next();
+				if(queued.id == id) {
+					lease = queued;
+					iterator.remove();
+					break;
+				}
+			}
+		}
+		if(lease == null) {
+			return false;
+		}
+		lease.primes = primes;
+		lease.checksum = checksum;
+		lease.file = file;
+		this.completed.put(lease.lowerBound, lease);
+		System.out.println("Lease " + (lease.id + 1) + "/" + this.totalLeases + " [" + lease.lowerBound + ","
+				+ lease.upperBound + ") finished by " + lease.worker + " with " + primes + " primes.");
+		if(this.completed.size() == this.totalLeases) {
+			this.finished.countDown();
+		}
+		return true;
+	} // End of completeLease
+
+	/**
+	 * Puts the leases of a disconnected worker back at the front of the queue.
+	 */
+	private synchronized void releaseLeases(String worker, HashMap<Integer, Integer> held) {
+		for(int id : held.keySet()) {
+			Lease lease = this.leased.get(id);
+			if(lease != null && held.get(id) == lease.assignment) {
+				this.leased.remove(id);
+				System.out.println("Worker " + worker + " disconnected, reassigning [" + lease.lowerBound + ","
+						+ lease.upperBound + ")");
+				this.pending.addFirst(lease);
+				this.reassignedLeases++;
+			}
+		}
+	} // End of releaseLeases
+
+	/**
+	 * Puts every lease past its deadline back at the front of the queue.
+	 */
+	private synchronized void reapExpiredLeases() {
+		long now = System.currentTimeMillis();
+		for(Iterator<Lease> iterator = this.leased.values().iterator(); iterator.hasNext();) {
+			Lease lease = iterator.next();
+			if(lease.deadline < now) {
+				System.out.println("Lease [" + lease.lowerBound + "," + lease.upperBound + ") held by "
+						+ lease.worker + " expired, reassigning");
+				iterator.remove();
+				this.pending.addFirst(lease);
+				this.reassignedLeases++;
+			}
+		}
+	} // End of reapExpiredLeases
+
+	/**
+	 * Writes one line per range in order, followed by the totals for the whole search space.
+	 * @return The name of the manifest file, null if there was an error
+	 */
+	private synchronized String writeManifest() {
+		String fileName = "Manifest [" + this.lowerBound + "," + this.upperBound + ").txt";
+		File manifest = this.outputFolder == null ? new File(fileName) : new File(this.outputFolder, fileName);
+		try(BufferedWriter writer = new BufferedWriter(new FileWriter(manifest))) {
+			long primes = 0;
+			long checksum = 0;
+			writer.write("# lowerBound upperBound primes checksum worker file");
+			writer.newLine();
+			for(Lease lease : this.completed.values()) {
+				writer.write("range " + lease.lowerBound + " " + lease.upperBound + " " + lease.primes + " "
+						+ lease.checksum + " " + lease.worker + " " + lease.file);
+				writer.newLine();
+				checksum = combineChecksums(checksum, lease.checksum, lease.primes);
+				primes += lease.primes;
+			}
+			writer.write("total " + this.lowerBound + " " + this.upperBound + " " + primes + " " + checksum);
+			writer.newLine();
+			return fileName;
+		}
+		catch(IOException e) {
+			System.out.println("Could not write the manifest to the specified folder");
+			e.printStackTrace();
+			return null;
+		}
+	} // End of writeManifest
+
+	/**
+	 * The checksum of a list of primes is the polynomial hash h = h * 31 + prime over the primes in order,
+	 * so the checksums of neighbouring ranges can be combined into the checksum of the whole range.
+	 * @param checksum The checksum so far
+	 * @param prime The next prime
+	 * @return The checksum including the prime
+	 */
+	public static long addToChecksum(long checksum, long prime) {
+		return checksum * 31 + prime;
+	} // End of addToChecksum
+
+	/**
+	 * @param first The checksum of the lower range
+	 * @param second The checksum of the upper range
+	 * @param secondCount The number of primes in the upper range
+	 * @return The checksum of both ranges together
+	 */
+	public static long combineChecksums(long first, long second, long secondCount) {
+		long power = 1;
+		long base = 31;
+		for(long e = secondCount; e > 0; e >>= 1) {
+			if((e & 1) == 1) {
+				power *= base;
+			}
+			base *= base;
+		}
+		return first * power + second;
+	} // End of combineChecksums
+
+	/**
+	 * This method prints out relevant information regarding the coordinator.
+	 */
+	public void printInfo() {
+		System.out.println("This coordinator split [" + this.lowerBound + "," + this.upperBound + ") into "
+				+ this.totalLeases + " lease(s) of " + this.leaseSize + " numbers.");
+		System.out.println(this.reassignedLeases + " lease(s) had to be reassigned.");
+		System.out.println("It did this in: " + this.executionTime + " milliseconds.");
+		if(this.manifestFile != null) {
+			System.out.println("The manifest was written to: " + this.manifestFile);
+		}
+	} // End of printInfo
+
+	public int getPort() {
+		return this.server == null ? this.port : this.server.getLocalPort();
+	}
+
+	public String getManifestFile() {
+		return this.manifestFile;
+	}
+
+	public long getExecutionTime() {
+		return this.executionTime;
+	}
+
+	/**
+	 * @return The name of the manifest file, null if there was an error
+	 * This implements the callable interface so the coordinator can be run alongside local workers
+	 */
+	public String call() {
+		long start = System.currentTimeMillis();
+		try {
+			coordinate();
+		}
+		catch(IOException | InterruptedException e) {
+			e.printStackTrace();
+		}
+		long end = System.currentTimeMillis();
+		this.executionTime = end - start;
+		return this.manifestFile;
+	} // End of call
+
+} // End of SieveCoordinator
@@ -0,0 +1,50 @@
+/**
+ * @author Josh Morgan
+ * This class is a driver to run a SieveCoordinator from the command line.
+ * Workers are started separately with the SieveWorkerDriver, on this host or any other.
+ */
+public class SieveCoordinatorDriver {
+
+	/**
+	 * @param args
+	 * port lowerBound upperBound leaseSize leaseTimeout outputFolder
+	 * A port of 0 will pick any free port, which is printed when the coordinator starts.
+	 * The lease size and lease timeout must be positive.
+	 */
+	public static void main(String[] args) {
+		SieveCoordinator coordinator = processArgs(args);
+		if(coordinator != null) {
+			coordinator.call();
+			coordinator.printInfo();
+		}
+	} // End of main
+
+	/**
+	 * @param args The command line arguments
+	 * @return A SieveCoordinator with the corresponding parameters, or null if they couldn't be read
+	 */
+	public static SieveCoordinator processArgs(String[] args) {
+		try {
+			if(args.length < 6) {
+				throw new NumberFormatException();
+			}
+			int port = Integer.parseInt(args[0]);
+			long lowerBound = Long.parseLong(args[1]);
+			long upperBound = Long.parseLong(args[2]);
+			long leaseSize = Long.parseLong(args[3]);
+			long leaseTimeout = Long.parseLong(args[4]);
+			if(leaseSize <= 0 || leaseTimeout <= 0) {
+				// A lease size of 0 never gets through the range, and a timeout of 0 reaps every lease at once
+				throw new NumberFormatException();
+			}
+			return new SieveCoordinator(port, lowerBound, upperBound, leaseSize, leaseTimeout, args[5]);
+		}
+		catch(NumberFormatException e) {
+			System.out.println("Please type the arguments as: ");
+			System.out.println("port lowerBound upperBound leaseSize leaseTimeout outputFolder");
+			System.out.println("with a positive leaseSize and leaseTimeout");
+			return null;
+		}
+	} // End of processArgs
+
+} // End of SieveCoordinatorDriver
@@ -0,0 +1,100 @@
+/**
+ * @author Josh Morgan
+ * A snapshot of the progress of a running sieve, passed to a SieveProgress.Listener after every segment.
+ * The rate and estimated time remaining are based on the numbers covered so far.
+ */
+public class SieveProgress {
+	private int segmentsDone;
+	private int totalSegments;
+	private long numbersCovered;
+	private long totalNumbers;
+	private long primesFound;
+	private long elapsedTime;
+	
+	/**
+	 * Receives the progress of a sieve, it is called from the sieving threads so it should return quickly.
+	 */
+	public interface Listener {
+		void onProgress(SieveProgress progress);
+	} // End of Listener
+	
+	/**
+	 * @param segmentsDone The number of segments that have finished
+	 * @param totalSegments The number of segments in the sieve
+	 * @param numbersCovered The amount of numbers in the finished segments
+	 * @param totalNumbers The amount of numbers in the sieve
+	 * @param primesFound The number of primes in the finished segments
+	 * @param elapsedTime The milliseconds since the sieve started
+	 */
+	SieveProgress(int segmentsDone, int totalSegments, long numbersCovered, long totalNumbers, long primesFound,
+			long elapsedTime){
+		this.segmentsDone = segmentsDone;
+		this.totalSegments = totalSegments;
+		this.numbersCovered = numbersCovered;
+		this.totalNumbers = totalNumbers;
+		this.primesFound = primesFound;
+		this.elapsedTime = elapsedTime;
+	} // End of Constructor
+	
+	/**
+	 * @return The numbers covered per second so far, 0 before anything has been covered
+	 */
+	public double getRate() {
+		if(this.elapsedTime == 0) {
+			return 0;
+		}
+		return this.numbersCovered * 1000.0 / this.elapsedTime;
+	} // End of getRate
+	
+	/**
+	 * @return The estimated milliseconds until the sieve finishes at the current rate, -1 if it can't be estimated yet
+	 */
+	public long getEstimatedTimeRemaining() {
+		if(this.numbersCovered == 0) {
+			return -1;
+		}
+		return (long) ((double) (this.totalNumbers - this.numbersCovered) * this.elapsedTime / this.numbersCovered);
+	} // End of getEstimatedTimeRemaining
+	
+	/**
+	 * @return The fraction of the numbers covered, between 0 and 1
+	 */
+	public double getFractionDone() {
+		if(this.totalNumbers == 0) {
+			return 1;
+		}
+		return (double) this.numbersCovered / this.totalNumbers;
+	} // End of getFractionDone
+	
+	public int getSegmentsDone() {
+		return this.segmentsDone;
+	}
+	
+	public int getTotalSegments() {
+		return this.totalSegments;
+	}
+	
+	public long getNumbersCovered() {
+		return this.numbersCovered;
+	}
+	
+	public long getTotalNumbers() {
+		return this.totalNumbers;
+	}
+	
+	public long getPrimesFound() {
+		return this.primesFound;
+	}
+	
+	public long getElapsedTime() {
+		return this.elapsedTime;
+	}
+	
+	public String toString() {
+		long remaining = getEstimatedTimeRemaining();
+		return String.format("%d/%d segments, %.1f%% of %d numbers, %d primes, %.0f numbers/s, ETA %s",
+				this.segmentsDone, this.totalSegments, getFractionDone() * 100, this.totalNumbers, this.primesFound,
+				getRate(), remaining < 0 ? "unknown" : (remaining / 1000) + " s");
+	} // End of toString
+	
+} // End of SieveProgress
@@ -0,0 +1,163 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Josh Morgan
+ * A Sieve Worker connects to a SieveCoordinator, and sieves each lease it is given with a ParallelLongSieve
+ * until the coordinator has no more leases. The lease being sieved is renewed in the background so the
+ * coordinator only reassigns it if this worker stops responding.
+ */
+public class SieveWorker implements Callable<Integer>{
+	private String host;
+	private int port;
+	private String name;
+	private String outputFolder;
+	private Socket socket;
+	private BufferedReader in;
+	private PrintWriter out;
+	private volatile int currentLease;
+	private int completedLeases;
+	private long executionTime;
+
+	/**
+	 * @param host The host of the coordinator
+	 * @param port The port of the coordinator
+	 * @param name The name reported to the coordinator and written to the manifest
+	 * @param outputFolder The folder the primes of each lease will be written to, or null to only report them
+	 */
+	SieveWorker(String host, int port, String name, String outputFolder){
+		this.host = host;
+		this.port = port;
+		this.name = name;
+		this.outputFolder = outputFolder;
+		this.currentLease = -1;
+	} // End of Constructor
+
+	/**
+	 * Requests leases until the coordinator is done, renewing the current lease at a third of its timeout.
+	 */
+	private void work() throws IOException, InterruptedException {
+		this.socket = new Socket(this.host, this.port);
+		this.in = new BufferedReader(new InputStreamReader(this.socket.getInputStream(), "US-ASCII"));
+		this.out = new PrintWriter(this.socket.getOutputStream(), true);
+		ScheduledExecutorService heartbeat = Executors.newSingleThreadScheduledExecutor();
+		try {
+			String[] welcome = send("HELLO " + this.name).split(" ");
+			long period = Math.max(1, Long.parseLong(welcome[1]) / 3);
+			heartbeat.scheduleAtFixedRate(() -> {
+				int lease = this.currentLease;
+				if(lease >= 0) {
+					try {
+						send("RENEW " + lease);
+					}
+					catch(IOException e) {
+						// The main loop will see the closed connection
+					}
+				}
+			}, period, period, TimeUnit.MILLISECONDS);
+
+			while(true) {
+				String reply = send("REQUEST");
+				if(reply == null || reply.equals("DONE")) {
+					break;
+				}
+				String[] command = reply.split(" ");
+				if(command[0].equals("WAIT")) {
+					Thread.sleep(Long.parseLong(command[1]));
+				}
+				else if(command[0].equals("LEASE")) {
+					int id = Integer.parseInt(command[1]);
+					this.currentLease = id;
+					String result = sieveLease(Long.parseLong(command[2]), Long.parseLong(command[3]));
+					this.currentLease = -1;
+					if("OK".equals(send("RESULT " + id + " " + result))) {
+						this.completedLeases++;
+					}
+				}
+			}
+		}
+		finally {
+			heartbeat.shutdownNow();
+			this.socket.close();
+		}
+	} // End of work
+
+	/**
+	 * @param lowerBound The lower bound of the lease (inclusive)
+	 * @param upperBound The upper bound of the lease (exclusive)
+	 * @return The primes, checksum and file of the lease as expected by the RESULT command
+	 */
+	private String sieveLease(long lowerBound, long upperBound) {
+		ParallelLongSieve pls = new ParallelLongSieve(lowerBound, upperBound, null);
+		pls.parallelSieve();
+		ArrayList<Long> primes = pls.getPrimes();
+		long checksum = 0;
+		for(long prime : primes) {
+			checksum = SieveCoordinator.addToChecksum(checksum, prime);
+		}
+		String file = "-";
+		if(this.outputFolder != null) {
+			String fileName = pls.writePrimes(this.outputFolder);
+			if(fileName != null) {
+				file = new File(this.outputFolder, fileName).getAbsolutePath();
+			}
+		}
+		System.out.println("Sieved [" + lowerBound + "," + upperBound + ") in " + pls.getParallelExecutionTime()
+				+ " milliseconds, found " + primes.size() + " primes.");
+		return primes.size() + " " + checksum + " " + file;
+	} // End of sieveLease
+
+	/**
+	 * Sends a command and waits for its reply, synchronized so the heartbeat can share the connection.
+	 * @return The reply, or null if the coordinator closed the connection
+	 */
+	private synchronized String send(String command) throws IOException {
+		this.out.println(command);
+		return this.in.readLine();
+	} // End of send
+
+	/**
+	 * This method prints out relevant information regarding the worker.
+	 */
+	public void printInfo() {
+		System.out.println("This worker completed " + this.completedLeases + " lease(s) from " + this.host + ":"
+				+ this.port + ".");
+		System.out.println("It did this in: " + this.executionTime + " milliseconds.");
+	} // End of printInfo
+
+	public int getCompletedLeases() {
+		return this.completedLeases;
+	}
+
+	public long getExecutionTime() {
+		return this.executionTime;
+	}
+
+	/**
+	 * @return The number of leases this worker completed
+	 * This implements the callable interface so several workers can be run in one JVM for testing
+	 */
+	public Integer call() {
+		long start = System.currentTimeMillis();
+		try {
+			work();
+		}
+		catch(IOException | InterruptedException e) {
+			System.out.println("Lost the connection to the coordinator");
+			e.printStackTrace();
+		}
+		long end = System.currentTimeMillis();
+		this.executionTime = end - start;
+		return this.completedLeases;
+	} // End of call
+
+} // End of SieveWorker
@@ -0,0 +1,45 @@
+import java.lang.management.ManagementFactory;
+/**
+ * @author Josh Morgan
+ * This class is a driver to run a SieveWorker from the command line.
+ * Several workers can be started on the same host to test a SieveCoordinator on localhost, LocalCluster.sh does
+ * this and checks the checksum of the manifest.
+ */
+public class SieveWorkerDriver {
+
+	/**
+	 * @param args
+	 * host port optionalOutputFolder
+	 * Without an output folder the worker only reports the count and checksum of each lease.
+	 */
+	public static void main(String[] args) {
+		SieveWorker worker = processArgs(args);
+		if(worker != null) {
+			worker.call();
+			worker.printInfo();
+		}
+	} // End of main
+
+	/**
+	 * @param args The command line arguments
+	 * @return A SieveWorker with the corresponding parameters, or null if they couldn't be read
+	 */
+	public static SieveWorker processArgs(String[] args) {
+		try {
+			if(args.length < 2) {
+				throw new NumberFormatException();
+			}
+			int port = Integer.parseInt(args[1]);
+			String outputFolder = args.length > 2 ? args[2] : null;
+			// The runtime name is pid@host, which tells workers on the same host apart
+			String name = ManagementFactory.getRuntimeMXBean().getName();
+			return new SieveWorker(args[0], port, name, outputFolder);
+		}
+		catch(NumberFormatException e) {
+			System.out.println("Please type the arguments as: ");
+			System.out.println("host port optionalOutputFolder");
+			return null;
+		}
+	} // End of processArgs
+
+} // End of SieveWorkerDriver
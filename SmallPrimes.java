@@ -0,0 +1,89 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * @author Josh Morgan
+ * The primes below 2^20, loaded from the SmallPrimes.bin resource the first time they are needed, so the prime
+ * factors of any sieve up to 2^40 are ready without sieving and larger ones only sieve from 2^20.
+ * The resource holds half the gap between each pair of odd primes from 3 in one byte each, since every gap below
+ * 2^20 is even and at most 114, which is about 80KB for the 82,025 primes.
+ * javac doesn't copy resources, so SmallPrimes.bin has to be copied next to the compiled classes, for example
+ * "javac -d classes *.java" followed by "cp SmallPrimes.bin classes/". If the resource isn't on the class path,
+ * a warning is printed once and the primes are sieved instead. Run this class with a folder to write the
+ * resource into it.
+ */
+public class SmallPrimes {
+	// The primes in the table are below this limit
+	public static final int LIMIT = 1 << 20;
+	private static final String RESOURCE = "SmallPrimes.bin";
+
+	/**
+	 * Holds the table, so it is only loaded when it is first used.
+	 */
+	private static class Table {
+		static final long[] PRIMES = load();
+	}
+
+	/**
+	 * @param limit The largest value to be checked (inclusive), at most LIMIT
+	 * @return The primes below or equal to the limit
+	 */
+	public static long[] upTo(long limit) {
+		long[] primes = Table.PRIMES;
+		int count = Arrays.binarySearch(primes, limit);
+		count = count >= 0 ? count + 1 : -count - 1;
+		return Arrays.copyOf(primes, count);
+	} // End of upTo
+
+	/**
+	 * Only called once, when the table is first used, so the warning for a missing resource is only printed once.
+	 * @return The primes in the resource, or sieved if it couldn't be read
+	 */
+	private static long[] load() {
+		try(InputStream resource = SmallPrimes.class.getResourceAsStream(RESOURCE)) {
+			if(resource == null) {
+				System.out.println(RESOURCE + " isn't on the class path, sieving the small primes instead. "
+						+ "Copy it next to the compiled classes to load them.");
+			}
+			else {
+				byte[] gaps = resource.readAllBytes();
+				long[] primes = new long[gaps.length + 2];
+				primes[0] = 2;
+				primes[1] = 3;
+				for(int i = 0; i < gaps.length; i++) {
+					primes[i + 2] = primes[i + 1] + 2 * (gaps[i] & 0xFF);
+				}
+				return primes;
+			}
+		}
+		catch(IOException e) {
+			System.out.println("Could not read " + RESOURCE + ", sieving the small primes instead");
+		}
+		return PrimeEngine.simplePrimes(LIMIT - 1);
+	} // End of load
+
+	/**
+	 * Writes the resource.
+	 * @param args The folder to write SmallPrimes.bin to, the working directory if there isn't one
+	 */
+	public static void main(String[] args) {
+		String path = args.length > 0 ? args[0] + "/" + RESOURCE : RESOURCE;
+		long[] primes = PrimeEngine.simplePrimes(LIMIT - 1);
+		try(OutputStream output = new FileOutputStream(path)) {
+			byte[] gaps = new byte[primes.length - 2];
+			for(int i = 2; i < primes.length; i++) {
+				gaps[i - 2] = (byte) ((primes[i] - primes[i - 1]) / 2);
+			}
+			output.write(gaps);
+			System.out.println("Wrote " + primes.length + " primes to " + path);
+		}
+		catch(IOException e) {
+			System.out.println("Could not write " + path);
+			e.printStackTrace();
+		}
+	} // End of main
+
+} // End of SmallPrimes
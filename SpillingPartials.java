@@ -0,0 +1,232 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+
+/**
+ * @author Josh Morgan
+ * The primes of each segment of a sieve, kept in memory while they fit in a budget and spilled to temporary files
+ * once they don't. A spilled segment is stored as the gaps between its primes, one to three bytes per prime
+ * instead of the twenty or so of a boxed Long in an ArrayList, and is read back when it is asked for, so the
+ * segments can be streamed to an output file in order without all of them being in memory at once.
+ * Segments that haven't finished yet are null.
+ */
+public class SpillingPartials extends AbstractList<ArrayList<Long>>{
+	// The memory used by one prime held in an ArrayList<Long>: the Long, its reference and some spare capacity
+	public static final long BYTES_PER_PRIME = 24;
+
+	private ArrayList<Long>[] held;
+	private File[] spilled;
+	private int[] counts;
+	private long memoryBudget;
+	private long heldBytes;
+	private long spilledBytes;
+	private int spilledSegments;
+
+	/**
+	 * @param size The number of segments
+	 * @param memoryBudget The largest number of bytes of primes held in memory, Long.MAX_VALUE to never spill
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	SpillingPartials(int size, long memoryBudget){
+		this.held = new ArrayList[size];
+		this.spilled = new File[size];
+		this.counts = new int[size];
+		this.memoryBudget = memoryBudget;
+	} // End of Constructor
+
+	/**
+	 * Holds the primes of a finished segment, or spills them if holding them would go over the budget.
+	 * @param index The index of the segment
+	 * @param primes The primes of the segment, in increasing order
+	 * @return True if the primes are held, false if they were spilled and the list can be dropped
+	 */
+	public boolean put(int index, ArrayList<Long> primes) {
+		return put(index, primes, primes.size());
+	} // End of put
+
+	/**
+	 * Holds the primes of a finished segment that may only have been counted, or spills them if holding them
+	 * would go over the budget.
+	 * @param index The index of the segment
+	 * @param primes The primes of the segment in increasing order, empty if they were only counted
+	 * @param count The number of primes in the segment
+	 * @return True if the primes are held, false if they were spilled and the list can be dropped
+	 */
+	public boolean put(int index, ArrayList<Long> primes, long count) {
+		long bytes = primes.size() * BYTES_PER_PRIME;
+		synchronized(this) {
+			this.counts[index] = (int) count;
+			if(this.heldBytes + bytes <= this.memoryBudget) {
+				this.held[index] = primes;
+				this.heldBytes += bytes;
+				return true;
+			}
+		}
+		// Written outside the lock so other workers can keep holding and spilling their own segments
+		File file = spill(primes);
+		synchronized(this) {
+			this.spilled[index] = file;
+			this.spilledBytes += file.length();
+			this.spilledSegments++;
+		}
+		return false;
+	} // End of put
+
+	/**
+	 * @return The primes of the segment, read back from its file if it was spilled, or null if it hasn't finished
+	 */
+	public ArrayList<Long> get(int index) {
+		File file;
+		synchronized(this) {
+			if(this.held[index] != null || this.spilled[index] == null) {
+				return this.held[index];
+			}
+			file = this.spilled[index];
+		}
+		return readBack(file, this.counts[index]);
+	} // End of get
+
+	/**
+	 * @return True if the segment has finished, whether it is held or spilled
+	 */
+	public synchronized boolean isDone(int index) {
+		return this.held[index] != null || this.spilled[index] != null;
+	}
+
+	/**
+	 * Drops the segment from memory or deletes its file once it has been used.
+	 * @param index The index of the segment
+	 */
+	public synchronized void release(int index) {
+		if(this.held[index] != null) {
+			this.heldBytes -= this.held[index].size() * BYTES_PER_PRIME;
+			this.held[index] = null;
+		}
+		if(this.spilled[index] != null) {
+			this.spilled[index].delete();
+			this.spilled[index] = null;
+		}
+	} // End of release
+
+	/**
+	 * Only setting a segment to null is supported, which releases it, so a writer can free each segment as it goes.
+	 * @return Null, a spilled segment isn't read back just to be returned
+	 */
+	public ArrayList<Long> set(int index, ArrayList<Long> primes) {
+		if(primes != null) {
+			throw new UnsupportedOperationException("Segments are added with put");
+		}
+		release(index);
+		return null;
+	} // End of set
+
+	/**
+	 * Deletes every spilled file.
+	 */
+	public synchronized void close() {
+		for(int i = 0; i < this.spilled.length; i++) {
+			if(this.spilled[i] != null) {
+				this.spilled[i].delete();
+			}
+		}
+	} // End of close
+
+	public int size() {
+		return this.held.length;
+	}
+
+	/**
+	 * @return The number of primes in the segment, whether it is held or spilled
+	 */
+	public synchronized int getCount(int index) {
+		return this.counts[index];
+	}
+
+	public synchronized long getHeldBytes() {
+		return this.heldBytes;
+	}
+
+	public synchronized long getSpilledBytes() {
+		return this.spilledBytes;
+	}
+
+	public synchronized int getSpilledSegments() {
+		return this.spilledSegments;
+	}
+
+	/**
+	 * Writes the gaps between the primes to a temporary file, seven bits per byte with the high bit set on every
+	 * byte but the last of a gap.
+	 * @return The temporary file, deleted when the JVM exits if it hasn't been released before
+	 */
+	private static File spill(ArrayList<Long> primes) {
+		try {
+			File file = File.createTempFile("Spilled Primes ", ".bin");
+			file.deleteOnExit();
+			try(FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+				long previous = 0;
+				for(long prime : primes) {
+					if(buffer.remaining() < 10) {
+						write(channel, buffer);
+					}
+					long gap = prime - previous;
+					while((gap & ~0x7FL) != 0) {
+						buffer.put((byte) ((gap & 0x7F) | 0x80));
+						gap >>>= 7;
+					}
+					buffer.put((byte) gap);
+					previous = prime;
+				}
+				write(channel, buffer);
+			}
+			return file;
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException("Could not spill a segment to disk", e);
+		}
+	} // End of spill
+
+	private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	} // End of write
+
+	/**
+	 * @return The primes decoded from a spilled file
+	 */
+	private static ArrayList<Long> readBack(File file, int count) {
+		try {
+			byte[] bytes = Files.readAllBytes(file.toPath());
+			ArrayList<Long> primes = new ArrayList<Long>(count);
+			long previous = 0;
+			long gap = 0;
+			int shift = 0;
+			for(byte b : bytes) {
+				gap |= (long) (b & 0x7F) << shift;
+				if((b & 0x80) != 0) {
+					shift += 7;
+					continue;
+				}
+				previous += gap;
+				primes.add(previous);
+				gap = 0;
+				shift = 0;
+			}
+			return primes;
+		}
+		catch(IOException e) {
+			throw new UncheckedIOException("Could not read back a spilled segment", e);
+		}
+	} // End of readBack
+
+} // End of SpillingPartials